@@ -0,0 +1,230 @@
+package bankaccount.bench;
+
+import bankaccount.Account;
+import bankaccount.AccountEngine;
+import bankaccount.AccountReport;
+import bankaccount.AccountStore;
+import bankaccount.AccrualReport;
+import bankaccount.Credentials;
+import bankaccount.MappedAccountStore;
+import bankaccount.Money;
+import bankaccount.OperationResult;
+import bankaccount.ShardedAccountStore;
+import bankaccount.StripedLocks;
+import bankaccount.TierTable;
+import bankaccount.TransactionJournal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Regression benchmarks for the hot paths behind the user interface, each measured at several
+ * account counts:
+ * <ul>
+ * <li>login: the salted credential check made by {@code LoginController.login}, and the
+ *     rejection of unknown usernames</li>
+ * <li>load balance: the existence check and balance read made when the customer view opens</li>
+ * <li>save balance: a balance write to the mapped store, as made at checkpoints</li>
+ * <li>purchase: {@code CustomerState.purchaseOnline} for each of the Silver, Gold and
+ *     Platinum tiers, journaled</li>
+ * <li>create account: {@code ManagerController.addCustomer}, journaled</li>
+ * <li>report: the parallel scan behind {@code ManagerController.showReport}, and the live
+ *     report read from running totals</li>
+ * <li>accrual: one monthly interest and fee accrual over every account, timed once per
+ *     iteration</li>
+ * </ul>
+ *
+ * Accounts are picked at random, so once the account count exceeds the cache size the load
+ * paths include cache misses. The stores are populated directly, without the journal and with
+ * one shared password hash, and deleted after each trial. The {@code shards} parameter
+ * measures a {@link ShardedAccountStore} of that many shards instead of a single mapped store
+ * when it is positive.
+ *
+ * Run one thread count with {@code java -jar benchmarks.jar AccountBenchmark -t 4}, or every
+ * power of two up to the number of processors with
+ * {@code java -cp benchmarks.jar bankaccount.bench.AccountBenchmark [JMH options]}. JMH
+ * writes machine-readable results with {@code -rf csv -rff results.csv}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountBenchmark {
+
+    private static final String PASSWORD = "password";
+
+    // Thresholds far apart enough that no benchmarked purchase moves an account between tiers.
+    private static final TierTable TIERS = TierTable.parse("Silver:0,Gold:1000000000,Platinum:2000000000");
+    private static final long[] OPENING_BALANCES = {Money.of(500_000_000L), Money.of(1_500_000_000L), Money.of(3_000_000_000L)};
+
+    @Param({"1000", "100000", "1000000"})
+    private int accounts;
+
+    @Param("0")
+    private int shards;
+
+    private Path directory;
+    private AccountStore store;
+    private AccountEngine engine;
+    private String[] usernames;
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicInteger accrued = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        directory = Files.createTempDirectory("account-benchmark");
+        ShardedAccountStore sharded = shards > 0 ? new ShardedAccountStore(directory, shards) : null;
+        MappedAccountStore mapped = sharded == null ? new MappedAccountStore(directory) : null;
+        store = sharded != null ? sharded : mapped;
+        usernames = new String[accounts];
+        Credentials.Hashed credential = Credentials.create(PASSWORD);
+        for (int i = 0; i < accounts; i++) {
+            usernames[i] = "user" + i;
+            Account account = new Account(usernames[i], "customer", OPENING_BALANCES[i % 3]);
+            account.setTier(i % 3);
+            if (sharded != null) {
+                sharded.createHashed(account, credential);
+            } else {
+                mapped.createHashed(account, credential);
+            }
+        }
+        store.flush();
+        engine = new AccountEngine(store, new TransactionJournal(directory), AccountEngine.DEFAULT_CACHE_SIZE,
+                StripedLocks.DEFAULT_STRIPES, TIERS);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        engine.close();
+        delete(directory);
+    }
+
+    private String pick() {
+        return usernames[ThreadLocalRandom.current().nextInt(accounts)];
+    }
+
+    // Effects: Returns a random account of the tier with the given index.
+    private String pick(int tier) {
+        return usernames[ThreadLocalRandom.current().nextInt(accounts / 3) * 3 + tier];
+    }
+
+    @Benchmark
+    public String login() {
+        return engine.authenticate(pick(), PASSWORD);
+    }
+
+    @Benchmark
+    public String loginUnknownUsername() {
+        return engine.authenticate("nobody" + ThreadLocalRandom.current().nextInt(), PASSWORD);
+    }
+
+    @Benchmark
+    public long loadBalance() {
+        String username = pick();
+        return engine.exists(username) ? engine.balance(username) : 0;
+    }
+
+    @Benchmark
+    public int saveBalance() throws IOException {
+        int index = ThreadLocalRandom.current().nextInt(accounts);
+        store.saveBalance(usernames[index], OPENING_BALANCES[index % 3], index % 3);
+        return index;
+    }
+
+    @Benchmark
+    public OperationResult purchaseSilver() {
+        return engine.purchase(pick(0), AccountEngine.MINIMUM_PURCHASE);
+    }
+
+    @Benchmark
+    public OperationResult purchaseGold() {
+        return engine.purchase(pick(1), AccountEngine.MINIMUM_PURCHASE);
+    }
+
+    @Benchmark
+    public OperationResult purchasePlatinum() {
+        return engine.purchase(pick(2), AccountEngine.MINIMUM_PURCHASE);
+    }
+
+    @Benchmark
+    public OperationResult createAccount() {
+        return engine.createAccount("new" + created.incrementAndGet(), PASSWORD, Money.of(100));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public AccountReport report() throws IOException {
+        return engine.report(AccountReport.DEFAULT_TOP);
+    }
+
+    @Benchmark
+    public AccountReport liveReport() {
+        return engine.liveReport();
+    }
+
+    // Each invocation accrues a month not accrued before, so none of them is a no-op.
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public AccrualReport accrue() throws IOException {
+        return engine.accrue(YearMonth.of(2000, 1).plusMonths(accrued.getAndIncrement()));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isDirectory(file)) {
+                    delete(file);
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Runs every benchmark of this class with 1, 2, 4, ... threads up to the number of
+     * processors.
+     *
+     * @param args JMH command line options, e.g. {@code -p accounts=1000} or {@code -rf csv}.
+     * @throws CommandLineOptionException if the options could not be parsed.
+     * @throws RunnerException if a benchmark failed.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            new Runner(new OptionsBuilder().parent(options).include(AccountBenchmark.class.getName() + "\\.")
+                    .threads(threads).build()).run();
+        }
+    }
+}
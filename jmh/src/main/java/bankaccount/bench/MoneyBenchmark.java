@@ -0,0 +1,79 @@
+package bankaccount.bench;
+
+import bankaccount.Money;
+import bankaccount.TierTable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@code long}-cents money path with the {@code double} path it replaced: parsing
+ * an entered amount, charging a tier fee, and formatting the balance for display or storage.
+ * The two benchmarks of each pair share a prefix, so that e.g.
+ * {@code java -jar benchmarks.jar MoneyBenchmark.parse} compares the two parsers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyBenchmark {
+
+    private static final String[] INPUTS = {"50", "75.5", "120.25", "999.99", "10000", "3.07", "250.1", "64"};
+
+    private final TierTable tiers = TierTable.defaults();
+    private final StringBuilder builder = new StringBuilder(32);
+    private int next;
+    private double doubleBalance = Double.MAX_VALUE / 2;
+    private long longBalance = Long.MAX_VALUE / 2;
+
+    // Effects: Returns the index of the next input, cycling through all of them.
+    // Modifies: next
+    private int next() {
+        return next++ & 7;
+    }
+
+    @Benchmark
+    public double parseDouble() {
+        return Double.parseDouble(INPUTS[next()]);
+    }
+
+    @Benchmark
+    public long parseMoney() {
+        return Money.parse(INPUTS[next()]);
+    }
+
+    @Benchmark
+    public double feeDouble() {
+        return doubleBalance -= 50.10 + 30.0;
+    }
+
+    @Benchmark
+    public long feeLong() {
+        return longBalance -= 5010 + Money.of(30);
+    }
+
+    @Benchmark
+    public long tierStateFor() {
+        return tiers.stateFor(next++ * 997L % Money.of(30000)).getPurchaseFee();
+    }
+
+    @Benchmark
+    public String formatDouble() {
+        return String.valueOf(12345.67 + (next++ & 1023));
+    }
+
+    @Benchmark
+    public StringBuilder formatMoney() {
+        builder.setLength(0);
+        return Money.appendTo(builder, 1234567 + (next++ & 1023));
+    }
+}
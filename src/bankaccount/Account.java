@@ -0,0 +1,97 @@
+package bankaccount;
+
+/**
+ * In-memory representation of a customer account as held by the {@link AccountEngine}.
+ * 
+ * This class is mutable. The balance, tier, dirty and rate limit fields are guarded by the engine's lock stripe
+ * for the username, which is held for every read-modify-write.
+ */
+public class Account {
+
+    private final String username;
+    private final String role;
+    private long balance;
+    private int tier;
+    private boolean dirty;
+    private long rateLimitTime;
+
+    /**
+     * Creates an account.
+     * 
+     * @param username The username of the account holder.
+     * @param role The role of the account holder, e.g. "customer".
+     * @param balance The opening balance in cents.
+     */
+    // Effects: Initializes this account with the given fields.
+    // Requires: username and role are not null.
+    public Account(String username, String role, long balance) {
+        this.username = username;
+        this.role = role;
+        this.balance = balance;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    // Modifies: balance
+    public void setBalance(long balance) {
+        this.balance = balance;
+    }
+
+    /**
+     * Returns the position of the account's tier in the engine's {@link TierTable}.
+     * 
+     * @return The tier index.
+     */
+    public int getTier() {
+        return tier;
+    }
+
+    // Modifies: tier
+    public void setTier(int tier) {
+        this.tier = tier;
+    }
+
+    /**
+     * Returns whether the balance has changed since it was last written to the store.
+     * 
+     * @return True if the balance is not yet in the store.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    // Modifies: dirty
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * Returns the state of the account's {@link RateLimiter} bucket: the time, on the limiter's
+     * clock, at which the bucket will be full again.
+     * 
+     * @return The bucket time in nanoseconds.
+     */
+    public long getRateLimitTime() {
+        return rateLimitTime;
+    }
+
+    // Modifies: rateLimitTime
+    public void setRateLimitTime(long rateLimitTime) {
+        this.rateLimitTime = rateLimitTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Account(username=" + username + ", role=" + role + ", balance=" + Money.format(balance) + ")";
+    }
+}
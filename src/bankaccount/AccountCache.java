@@ -0,0 +1,189 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-memory cache of accounts keyed by username, used by the {@link AccountEngine} so
+ * that hot accounts are served from memory.
+ *
+ * The cache is split into segments, each an access-ordered map with its own lock, so lookups
+ * of different accounts rarely contend. When a segment is over its share of the maximum size
+ * the least recently used accounts are evicted. An account is only evicted if the lock stripe
+ * guarding its username is free, so no operation is using it; the {@link EvictionHandler}
+ * then writes back a dirty balance before the account is dropped.
+ * Misses are loaded while holding the segment lock, so a stale copy can never be loaded while
+ * an evicted one is being written back.
+ *
+ * This class is thread-safe.
+ */
+public class AccountCache {
+
+    /**
+     * Loads an account that is not in the cache.
+     */
+    public interface Loader {
+        /**
+         * @param username The username to load.
+         * @return The account, or null if it does not exist.
+         * @throws IOException if the account could not be read.
+         */
+        Account load(String username) throws IOException;
+    }
+
+    /**
+     * Called with the account's lock stripe held before an account is dropped from the cache.
+     */
+    public interface EvictionHandler {
+        /**
+         * @param account The account about to be evicted.
+         * @throws IOException if the account could not be written back; it then stays cached.
+         */
+        void evicting(Account account) throws IOException;
+    }
+
+    private static final int SEGMENTS = 16;
+    private static final int MAX_EVICTION_SCAN = 8;
+
+    private final Map<String, Account>[] segments;
+    private final int segmentCapacity;
+    private final StripedLocks locks;
+    private final Loader loader;
+    private final EvictionHandler evictionHandler;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maximumSize The approximate maximum number of cached accounts.
+     * @param locks The lock stripes guarding the accounts.
+     * @param loader Loads accounts on a miss.
+     * @param evictionHandler Writes back accounts before they are evicted.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public AccountCache(int maximumSize, StripedLocks locks, Loader loader, EvictionHandler evictionHandler) {
+        this.segments = new Map[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new LinkedHashMap<>(16, 0.75f, true);
+        }
+        this.segmentCapacity = Math.max(1, maximumSize / SEGMENTS);
+        this.locks = locks;
+        this.loader = loader;
+        this.evictionHandler = evictionHandler;
+    }
+
+    private Map<String, Account> segmentFor(String username) {
+        int h = username.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Returns the cached account, loading it on a miss.
+     *
+     * @param username The username to look up.
+     * @return The account, or null if it does not exist.
+     * @throws IOException if the account had to be loaded and could not be read.
+     */
+    public Account get(String username) throws IOException {
+        Map<String, Account> segment = segmentFor(username);
+        synchronized (segment) {
+            Account account = segment.get(username);
+            if (account != null) {
+                hits.increment();
+                return account;
+            }
+            misses.increment();
+            account = loader.load(username);
+            if (account != null) {
+                segment.put(username, account);
+                evictIfNeeded(segment);
+            }
+            return account;
+        }
+    }
+
+    /**
+     * Returns the cached account without loading it.
+     *
+     * @param username The username to look up.
+     * @return The account, or null if it is not cached.
+     */
+    public Account getIfPresent(String username) {
+        Map<String, Account> segment = segmentFor(username);
+        synchronized (segment) {
+            return segment.get(username);
+        }
+    }
+
+    /**
+     * Drops an account from the cache without writing it back.
+     *
+     * @param username The username to drop.
+     */
+    public void remove(String username) {
+        Map<String, Account> segment = segmentFor(username);
+        synchronized (segment) {
+            segment.remove(username);
+        }
+    }
+
+    // Effects: Evicts least recently used accounts whose locks are free until the segment is
+    //          within capacity or MAX_EVICTION_SCAN candidates have been tried.
+    // Requires: The caller holds the lock on segment.
+    private void evictIfNeeded(Map<String, Account> segment) {
+        int scanned = 0;
+        Iterator<Account> eldest = segment.values().iterator();
+        while (segment.size() > segmentCapacity && scanned++ < MAX_EVICTION_SCAN && eldest.hasNext()) {
+            Account account = eldest.next();
+            ReentrantLock lock = locks.forKey(account.getUsername());
+            if (lock.isHeldByCurrentThread() || !lock.tryLock()) {
+                // A stripe held by this thread may guard an account the caller is using,
+                // including the one just loaded.
+                continue;
+            }
+            try {
+                evictionHandler.evicting(account);
+                eldest.remove();
+                evictions.increment();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, Account> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AccountCache(size=" + size() + ", hits=" + hitCount() + ", misses=" + missCount()
+                + ", evictions=" + evictionCount() + ")";
+    }
+}
@@ -0,0 +1,1617 @@
+package bankaccount;
+
+import bankaccount.EngineMetrics.Operation;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Headless, thread-safe account engine holding all balance and tier logic.
+ *
+ * The JavaFX controllers and the {@link CustomerState} tiers call into this class, so the
+ * same code path can be driven from batch jobs, services or benchmarks without a running
+ * FX toolkit. Every operation holds the lock stripe of its username (see {@link StripedLocks}),
+ * so operations on one account, including its creation, deletion, eviction and write-back, are
+ * linearizable while operations on accounts in other stripes run in parallel.
+ *
+ * Accounts are served from a bounded {@link AccountCache}. Balance changes are made durable by
+ * appending them to a {@link TransactionJournal} and are written behind to the store in
+ * batches at checkpoints, which write every changed balance and then discard the journal
+ * segments they cover. Any segments left behind by a crash are replayed into the store when
+ * the engine is created.
+ */
+public class AccountEngine implements Closeable {
+
+    public static final long MINIMUM_PURCHASE = Money.of(50);
+    public static final long GOLD_THRESHOLD = Money.of(10000);
+    public static final long PLATINUM_THRESHOLD = Money.of(20000);
+
+    public static final int DEFAULT_CACHE_SIZE = 100_000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10_000;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 60 * 60 * 1000;
+    public static final int DEFAULT_SNAPSHOTS_KEPT = 3;
+    public static final long DEFAULT_METRICS_INTERVAL_MILLIS = 60_000;
+    public static final int DEFAULT_IDEMPOTENCY_KEYS = 100_000;
+    public static final long DEFAULT_IDEMPOTENCY_TTL_MILLIS = 10 * 60 * 1000;
+    public static final double DEFAULT_PURCHASES_PER_SECOND = 5;
+    public static final int DEFAULT_PURCHASE_BURST = 10;
+    public static final int DEFAULT_EVENT_CAPACITY = 1 << 14;
+    public static final long DEFAULT_LARGE_TRANSACTION = Money.of(10000);
+    public static final long DEFAULT_ACCRUAL_CHECK_MILLIS = 60 * 60 * 1000;
+    public static final int ACCRUAL_CHUNKS = 64;
+
+    private static final long MIN_EXPECTED_USERNAMES = 1 << 20;
+    private static final double USERNAME_FALSE_POSITIVE_RATE = 0.01;
+    private static final Account CREATED_AFTER_CUT = new Account("", "customer", 0);
+
+    private static volatile AccountEngine instance;
+
+    private final AccountStore store;
+    private final TransactionJournal journal;
+    private final TransactionHistory history;
+    private final StripedLocks locks;
+    private final AccountCache cache;
+    private final TierTable tiers;
+    private final BloomFilter knownUsernames;
+    private final AccountStatistics statistics;
+    private final EngineMetrics metrics;
+    private final IdempotencyCache idempotencyKeys =
+            new IdempotencyCache(DEFAULT_IDEMPOTENCY_KEYS, DEFAULT_IDEMPOTENCY_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    private volatile RateLimiter purchaseLimiter;
+    private final EventBus<AccountEvent> events = new EventBus<>(DEFAULT_EVENT_CAPACITY);
+    private volatile long largeTransaction = DEFAULT_LARGE_TRANSACTION;
+    private final ExecutorService verifier;
+    private final List<TierListener> tierListeners = new CopyOnWriteArrayList<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Object checkpointLock = new Object();
+    private ScheduledExecutorService checkpointer;
+    private ScheduledExecutorService metricsWriter;
+    private Path metricsFile;
+
+    // Accounts as they were at the cut of the snapshot being taken, recorded the first time each
+    // one changes after the cut; null while no snapshot is being taken.
+    private volatile Map<String, Account> snapshotPreImages;
+    private final ReadWriteLock bulkCreateLock = new ReentrantReadWriteLock();
+    // Held shared by each accrual chunk from its journal batch until it is recorded as done, and
+    // exclusively by checkpoints, so that no checkpoint discards the journal record of a chunk
+    // that is applied but not yet recorded in the accrual log.
+    private final ReadWriteLock accrualLock = new ReentrantReadWriteLock();
+    private final AccrualLog accruals;
+    private ScheduledExecutorService accruer;
+    private volatile boolean closing;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotter;
+    private volatile Path snapshotDirectory;
+
+    /**
+     * Creates an engine backed by the given store, journal and history, first replaying any
+     * journal segments that were not checkpointed into the store and the history.
+     *
+     * @param store The store accounts are loaded from and checkpointed to.
+     * @param journal The journal every balance change is appended to.
+     * @param history The history journaled transactions are copied to, or null to keep none.
+     * @param cacheSize The maximum number of accounts kept in memory.
+     * @param stripes The number of lock stripes.
+     * @param tiers The balance thresholds of the customer tiers.
+     * @throws IOException if recovery from the journal failed.
+     */
+    public AccountEngine(AccountStore store, TransactionJournal journal, TransactionHistory history, int cacheSize,
+            int stripes, TierTable tiers) throws IOException {
+        this.store = store;
+        this.journal = journal;
+        this.history = history;
+        this.tiers = tiers;
+        this.locks = new StripedLocks(stripes);
+        this.metrics = new EngineMetrics(tiers);
+        this.cache = new AccountCache(cacheSize, locks, this::load, this::writeBack);
+        this.accruals = new AccrualLog(journal.getDirectory().resolve("accruals"));
+        recover();
+        journal.setHistory(history);
+        this.statistics = store.reduce(() -> new AccountStatistics(tiers.size()), (totals, record) -> {
+            if (record.isCustomer()) {
+                totals.add(tiers.indexFor(record.balance()), record.balance());
+            }
+        }, AccountStatistics::merge);
+        int[] accounts = new int[1];
+        store.forEachUsername(username -> accounts[0]++);
+        this.knownUsernames = new BloomFilter(Math.max(MIN_EXPECTED_USERNAMES, 2L * accounts[0]), USERNAME_FALSE_POSITIVE_RATE);
+        store.forEachUsername(knownUsernames::add);
+        AtomicInteger verifierThreads = new AtomicInteger();
+        this.verifier = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "credential-verifier-" + verifierThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates an engine that keeps no transaction history.
+     *
+     * @param store The store accounts are loaded from and checkpointed to.
+     * @param journal The journal every balance change is appended to.
+     * @param cacheSize The maximum number of accounts kept in memory.
+     * @param stripes The number of lock stripes.
+     * @param tiers The balance thresholds of the customer tiers.
+     * @throws IOException if recovery from the journal failed.
+     */
+    public AccountEngine(AccountStore store, TransactionJournal journal, int cacheSize, int stripes, TierTable tiers)
+            throws IOException {
+        this(store, journal, null, cacheSize, stripes, tiers);
+    }
+
+    /**
+     * Creates an engine with the default tier table.
+     *
+     * @param store The store accounts are loaded from and checkpointed to.
+     * @param journal The journal every balance change is appended to.
+     * @param cacheSize The maximum number of accounts kept in memory.
+     * @param stripes The number of lock stripes.
+     * @throws IOException if recovery from the journal failed.
+     */
+    public AccountEngine(AccountStore store, TransactionJournal journal, int cacheSize, int stripes) throws IOException {
+        this(store, journal, cacheSize, stripes, TierTable.defaults());
+    }
+
+    /**
+     * Creates an engine with the default number of lock stripes.
+     *
+     * @param store The store accounts are loaded from and checkpointed to.
+     * @param journal The journal every balance change is appended to.
+     * @param cacheSize The maximum number of accounts kept in memory.
+     * @throws IOException if recovery from the journal failed.
+     */
+    public AccountEngine(AccountStore store, TransactionJournal journal, int cacheSize) throws IOException {
+        this(store, journal, cacheSize, StripedLocks.DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates an engine with the default cache size and number of lock stripes.
+     *
+     * @param store The store accounts are loaded from and checkpointed to.
+     * @param journal The journal every balance change is appended to.
+     * @throws IOException if recovery from the journal failed.
+     */
+    public AccountEngine(AccountStore store, TransactionJournal journal) throws IOException {
+        this(store, journal, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Returns the engine shared by the user interface, backed by a sharded account store,
+     * a journal and a transaction history in the directory named by the {@code bankaccount.dataDir} system property
+     * (the working directory by default). The store has {@code bankaccount.shards} shards, one
+     * per processor by default. Legacy {@code <username>.txt} files are imported
+     * when the store is first created. The cache size and the interval between write-behind
+     * checkpoints are read from the {@code bankaccount.cacheSize} and
+     * {@code bankaccount.flushIntervalMillis} system properties, and the tier table from
+     * {@code bankaccount.tiers} in the form accepted by {@link TierTable#parse(String)}.
+     * Snapshots are written to the {@code snapshots} subdirectory every
+     * {@code bankaccount.snapshotIntervalMillis} (hourly by default, never if zero), keeping
+     * the newest {@code bankaccount.snapshotsKept}. The engine's metrics are registered with
+     * JMX as {@value EngineMetrics#OBJECT_NAME} and, if {@code bankaccount.metricsFile} is set,
+     * written to that file every {@code bankaccount.metricsIntervalMillis} (every minute by
+     * default). Each customer may make {@code bankaccount.purchasesPerSecond} purchases per
+     * second, in bursts of up to {@code bankaccount.purchaseBurst} (no limit if the rate is zero).
+     * Transactions of at least {@code bankaccount.largeTransaction} dollars are published as
+     * large transaction events. Monthly accrual is off unless {@code bankaccount.accrual} is
+     * {@code true}, in which case whether the previous month has been accrued is checked every
+     * {@code bankaccount.accrualCheckMillis} (hourly by default).
+     *
+     * @return The shared engine.
+     * @throws UncheckedIOException if the journal could not be opened or recovered.
+     */
+    public static AccountEngine getInstance() {
+        AccountEngine engine = instance;
+        if (engine == null) {
+            synchronized (AccountEngine.class) {
+                engine = instance;
+                if (engine == null) {
+                    Path directory = Paths.get(System.getProperty("bankaccount.dataDir", "")).toAbsolutePath();
+                    try {
+                        ShardedAccountStore store = new ShardedAccountStore(directory,
+                                Integer.getInteger("bankaccount.shards", Runtime.getRuntime().availableProcessors()));
+                        if (store.size() == 0) {
+                            store.importLegacyFiles(directory);
+                        }
+                        String tierSpec = System.getProperty("bankaccount.tiers");
+                        engine = new AccountEngine(store, new TransactionJournal(directory), new TransactionHistory(directory),
+                                Integer.getInteger("bankaccount.cacheSize", DEFAULT_CACHE_SIZE), StripedLocks.DEFAULT_STRIPES,
+                                tierSpec == null ? TierTable.defaults() : TierTable.parse(tierSpec));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    engine.startCheckpointing(Long.getLong("bankaccount.flushIntervalMillis", DEFAULT_FLUSH_INTERVAL_MILLIS),
+                            TimeUnit.MILLISECONDS);
+                    engine.snapshotDirectory = directory.resolve("snapshots");
+                    long snapshotInterval = Long.getLong("bankaccount.snapshotIntervalMillis", DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+                    if (snapshotInterval > 0) {
+                        engine.startSnapshots(engine.snapshotDirectory, snapshotInterval, TimeUnit.MILLISECONDS,
+                                Integer.getInteger("bankaccount.snapshotsKept", DEFAULT_SNAPSHOTS_KEPT));
+                    }
+                    String metricsFile = System.getProperty("bankaccount.metricsFile");
+                    if (metricsFile != null) {
+                        engine.startMetricsDump(Paths.get(metricsFile).toAbsolutePath(),
+                                Long.getLong("bankaccount.metricsIntervalMillis", DEFAULT_METRICS_INTERVAL_MILLIS),
+                                TimeUnit.MILLISECONDS);
+                    }
+                    engine.metrics.register();
+                    double purchaseRate = Double.parseDouble(
+                            System.getProperty("bankaccount.purchasesPerSecond", String.valueOf(DEFAULT_PURCHASES_PER_SECOND)));
+                    if (purchaseRate > 0) {
+                        engine.setPurchaseRateLimiter(
+                                new RateLimiter(purchaseRate, Integer.getInteger("bankaccount.purchaseBurst", DEFAULT_PURCHASE_BURST)));
+                    }
+                    if (Boolean.getBoolean("bankaccount.accrual")) {
+                        engine.startAccrual(Long.getLong("bankaccount.accrualCheckMillis", DEFAULT_ACCRUAL_CHECK_MILLIS),
+                                TimeUnit.MILLISECONDS);
+                    }
+                    String largeTransaction = System.getProperty("bankaccount.largeTransaction");
+                    if (largeTransaction != null) {
+                        engine.setLargeTransactionThreshold(Money.parse(largeTransaction));
+                    }
+                    instance = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Closes the shared engine if it was ever created.
+     */
+    public static void shutdown() {
+        synchronized (AccountEngine.class) {
+            if (instance != null) {
+                instance.metrics.unregister();
+                try {
+                    instance.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Limits how often each account may make purchases. Engines have no limit unless one is set.
+     *
+     * @param limiter The limiter to apply, or null for no limit.
+     */
+    public void setPurchaseRateLimiter(RateLimiter limiter) {
+        purchaseLimiter = limiter;
+    }
+
+    /**
+     * Registers a listener to be told when an account moves between tiers.
+     *
+     * @param listener The listener to add.
+     */
+    public void addTierListener(TierListener listener) {
+        tierListeners.add(listener);
+    }
+
+    public void removeTierListener(TierListener listener) {
+        tierListeners.remove(listener);
+    }
+
+    /**
+     * Returns the stream of tier changes and large transactions, for dashboards to subscribe
+     * to. Events are published while the account's lock stripe is held but never wait for
+     * subscribers; a subscriber that falls behind by more than {@link #DEFAULT_EVENT_CAPACITY}
+     * events misses the oldest.
+     *
+     * @return The engine's event bus.
+     */
+    public EventBus<AccountEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Sets the smallest deposit, withdrawal, purchase or transfer published as a
+     * LARGE_TRANSACTION event, {@link #DEFAULT_LARGE_TRANSACTION} unless set.
+     *
+     * @param amount The threshold, in cents.
+     */
+    public void setLargeTransactionThreshold(long amount) {
+        largeTransaction = amount;
+    }
+
+    public TierTable getTiers() {
+        return tiers;
+    }
+
+    // Effects: Returns the cached account for username, loading it from the store on a miss,
+    //          or null if no such account exists or it could not be read.
+    // Requires: The caller holds the lock stripe for username.
+    private Account account(String username) {
+        try {
+            return cache.get(username);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Effects: Reads an account from the store and works out its tier, or returns null if it
+    //          does not exist.
+    private Account load(String username) throws IOException {
+        long start = System.nanoTime();
+        Account account = store.load(username);
+        if (account != null) {
+            account.setTier(tiers.indexFor(account.getBalance()));
+        }
+        metrics.record(Operation.LOAD, start);
+        return account;
+    }
+
+    // Effects: Writes a dirty balance to the store, e.g. before the cache drops the account.
+    // Modifies: store, account
+    // Requires: The caller holds the lock stripe for the account's username.
+    private void writeBack(Account account) throws IOException {
+        if (account.isDirty()) {
+            store.saveBalance(account.getUsername(), account.getBalance(), account.getTier());
+            account.setDirty(false);
+        }
+    }
+
+    /**
+     * Returns the latency histograms and outcome counters of this engine's operations.
+     *
+     * @return The metrics.
+     */
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the cache accounts are served from, e.g. to read its hit, miss and eviction
+     * counters.
+     *
+     * @return The account cache.
+     */
+    public AccountCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns whether an account exists.
+     *
+     * @param username The username to look up.
+     * @return True if the account exists.
+     */
+    public boolean exists(String username) {
+        return knownUsernames.mightContain(username)
+                && (cache.getIfPresent(username) != null || store.exists(username));
+    }
+
+    /**
+     * Checks a customer's credentials on the calling thread. Usernames that were never
+     * created are rejected at once; otherwise the password is hashed, which is deliberately
+     * slow, so user interface code should use {@link #authenticateAsync(String, String)}.
+     *
+     * @param username The username entered.
+     * @param password The password entered.
+     * @return The role of the account if the credentials match, otherwise null.
+     */
+    public String authenticate(String username, String password) {
+        long start = System.nanoTime();
+        if (!knownUsernames.mightContain(username)) {
+            metrics.record(Operation.LOGIN, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+            return null;
+        }
+        String role;
+        int tier;
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            Account account = account(username);
+            if (account == null) {
+                metrics.record(Operation.LOGIN, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+                return null;
+            }
+            role = account.getRole();
+            tier = account.getTier();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            boolean matches = store.checkPassword(username, password);
+            metrics.record(Operation.LOGIN, start, tier,
+                    matches ? OperationResult.SUCCESS : OperationResult.INVALID_CREDENTIALS);
+            return matches ? role : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            metrics.record(Operation.LOGIN, start, tier, OperationResult.STORAGE_ERROR);
+            return null;
+        }
+    }
+
+    /**
+     * Checks a customer's credentials on a pool of verifier threads sized to the processors,
+     * so that bursts of attempts queue there instead of blocking the caller. Attempts for
+     * usernames that were never created complete immediately without being queued.
+     *
+     * @param username The username entered.
+     * @param password The password entered.
+     * @return Completes with the role of the account if the credentials match, otherwise null.
+     */
+    public CompletableFuture<String> authenticateAsync(String username, String password) {
+        if (!knownUsernames.mightContain(username)) {
+            metrics.record(Operation.LOGIN, System.nanoTime(), EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> authenticate(username, password), verifier);
+    }
+
+    /**
+     * Creates a customer account.
+     *
+     * @param username The username of the new customer.
+     * @param password The password of the new customer.
+     * @param initialBalance The opening balance, in cents; must not be negative.
+     * @return SUCCESS, INVALID_AMOUNT, ACCOUNT_EXISTS or STORAGE_ERROR.
+     */
+    public OperationResult createAccount(String username, String password, long initialBalance) {
+        long start = System.nanoTime();
+        if (initialBalance < 0) {
+            return metrics.record(Operation.CREATE, start, EngineMetrics.NO_TIER, OperationResult.INVALID_AMOUNT);
+        }
+        if (exists(username)) {
+            return metrics.record(Operation.CREATE, start, EngineMetrics.NO_TIER, OperationResult.ACCOUNT_EXISTS);
+        }
+        // Hashed before taking the lock stripe, which the hashing would hold for most of the call.
+        Credentials.Hashed credential = Credentials.create(password);
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            if (exists(username)) {
+                return metrics.record(Operation.CREATE, start, EngineMetrics.NO_TIER, OperationResult.ACCOUNT_EXISTS);
+            }
+            Account account = new Account(username, "customer", initialBalance);
+            account.setTier(tiers.indexFor(initialBalance));
+            preserveAbsent(username);
+            store.createHashed(account, credential);
+            // Recovery only replays the journal into accounts the store has, so the new record
+            // must be durable before its CREATE record is.
+            store.flush(username);
+            knownUsernames.add(username);
+            journal.append(TransactionType.CREATE, username, initialBalance, initialBalance);
+            statistics.add(account.getTier(), initialBalance);
+            return metrics.record(Operation.CREATE, start, account.getTier(), OperationResult.SUCCESS);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return metrics.record(Operation.CREATE, start, EngineMetrics.NO_TIER, OperationResult.STORAGE_ERROR);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates many customer accounts as one batch: the passwords are hashed in parallel, then,
+     * holding every lock stripe the usernames map to in ascending order, the store writes the
+     * accounts in a single transaction, detecting existing usernames through its index, and
+     * the journal records them in a single group commit. Each account is counted in the
+     * metrics as a single create would be.
+     *
+     * @param usernames The usernames of the new customers.
+     * @param passwords The password of each new customer.
+     * @param initialBalances The opening balance of each new customer, in cents; must not be
+     *        negative.
+     * @return For each account, SUCCESS, INVALID_AMOUNT, ACCOUNT_EXISTS (also for a repeat
+     *         within the batch) or STORAGE_ERROR.
+     */
+    public OperationResult[] createAccounts(List<String> usernames, List<String> passwords, long[] initialBalances) {
+        long start = System.nanoTime();
+        OperationResult[] results = new OperationResult[usernames.size()];
+        List<Account> accounts = new ArrayList<>(results.length);
+        List<String> accountPasswords = new ArrayList<>(results.length);
+        // The position in the batch of each account to create.
+        int[] positions = new int[results.length];
+        for (int i = 0; i < results.length; i++) {
+            if (initialBalances[i] < 0) {
+                results[i] = OperationResult.INVALID_AMOUNT;
+                continue;
+            }
+            if (exists(usernames.get(i))) {
+                results[i] = OperationResult.ACCOUNT_EXISTS;
+                continue;
+            }
+            Account account = new Account(usernames.get(i), "customer", initialBalances[i]);
+            account.setTier(tiers.indexFor(initialBalances[i]));
+            positions[accounts.size()] = i;
+            accounts.add(account);
+            accountPasswords.add(passwords.get(i));
+        }
+        // Hashed before taking any lock stripe, which the hashing would hold for most of the call.
+        Credentials.Hashed[] credentials = new Credentials.Hashed[accounts.size()];
+        IntStream.range(0, credentials.length).parallel()
+                .forEach(j -> credentials[j] = Credentials.create(accountPasswords.get(j)));
+        boolean[] stripes = new boolean[locks.size()];
+        for (Account account : accounts) {
+            stripes[locks.indexFor(account.getUsername())] = true;
+        }
+        int locked = 0;
+        bulkCreateLock.readLock().lock();
+        try {
+            for (; locked < stripes.length; locked++) {
+                if (stripes[locked]) {
+                    locks.get(locked).lock();
+                }
+            }
+            if (snapshotPreImages != null) {
+                for (Account account : accounts) {
+                    if (!exists(account.getUsername())) {
+                        preserveAbsent(account.getUsername());
+                    }
+                }
+            }
+            boolean[] created = store.createAllHashed(accounts, Arrays.asList(credentials));
+            List<String> createdNames = new ArrayList<>();
+            long[] createdBalances = new long[accounts.size()];
+            for (int j = 0; j < accounts.size(); j++) {
+                Account account = accounts.get(j);
+                if (created[j]) {
+                    knownUsernames.add(account.getUsername());
+                    createdBalances[createdNames.size()] = account.getBalance();
+                    createdNames.add(account.getUsername());
+                    results[positions[j]] = OperationResult.SUCCESS;
+                } else {
+                    results[positions[j]] = OperationResult.ACCOUNT_EXISTS;
+                }
+            }
+            journal.appendAll(TransactionType.CREATE, createdNames, createdBalances);
+            for (int j = 0; j < accounts.size(); j++) {
+                if (created[j]) {
+                    statistics.add(accounts.get(j).getTier(), accounts.get(j).getBalance());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            for (int j = 0; j < accounts.size(); j++) {
+                results[positions[j]] = OperationResult.STORAGE_ERROR;
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                if (stripes[i]) {
+                    locks.get(i).unlock();
+                }
+            }
+            bulkCreateLock.readLock().unlock();
+        }
+        for (int i = 0; i < results.length; i++) {
+            int tier = results[i] == OperationResult.SUCCESS ? tiers.indexFor(initialBalances[i]) : EngineMetrics.NO_TIER;
+            metrics.record(Operation.CREATE, start, tier, results[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Deletes many customer accounts as one batch. The deletions are journaled in a single
+     * group commit before the store is changed, so recovery completes a batch that was cut
+     * short. Every lock stripe the usernames map to is held for the duration, in ascending
+     * order.
+     *
+     * @param usernames The usernames of the accounts to delete.
+     * @return For each username, SUCCESS, UNKNOWN_ACCOUNT or STORAGE_ERROR.
+     */
+    public OperationResult[] deleteAccounts(List<String> usernames) {
+        OperationResult[] results = new OperationResult[usernames.size()];
+        boolean[] stripes = new boolean[locks.size()];
+        for (String username : usernames) {
+            stripes[locks.indexFor(username)] = true;
+        }
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                if (stripes[locked]) {
+                    locks.get(locked).lock();
+                }
+            }
+            List<String> existing = new ArrayList<>();
+            for (String username : usernames) {
+                if (exists(username)) {
+                    existing.add(username);
+                }
+            }
+            journal.appendAll(TransactionType.DELETE, existing, new long[existing.size()]);
+            for (String username : existing) {
+                Account account = peek(username);
+                if (account != null) {
+                    preserve(account);
+                    if (isCustomer(account)) {
+                        statistics.remove(tiers.indexFor(account.getBalance()), account.getBalance());
+                    }
+                }
+                cache.remove(username);
+                dirty.remove(username);
+            }
+            boolean[] deleted = store.deleteAll(usernames);
+            for (int i = 0; i < results.length; i++) {
+                results[i] = deleted[i] ? OperationResult.SUCCESS : OperationResult.UNKNOWN_ACCOUNT;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Arrays.fill(results, OperationResult.STORAGE_ERROR);
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                if (stripes[i]) {
+                    locks.get(i).unlock();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Deletes a customer account. Operations already waiting on the account see it as unknown
+     * once the deletion completes.
+     *
+     * @param username The username of the account to delete.
+     * @return SUCCESS, UNKNOWN_ACCOUNT or STORAGE_ERROR.
+     */
+    public OperationResult deleteAccount(String username) {
+        long start = System.nanoTime();
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            Account account = account(username);
+            if (account == null) {
+                return metrics.record(Operation.DELETE, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+            }
+            journal.append(TransactionType.DELETE, username, 0, 0);
+            preserve(account);
+            if (isCustomer(account)) {
+                statistics.remove(account.getTier(), account.getBalance());
+            }
+            cache.remove(username);
+            dirty.remove(username);
+            return metrics.record(Operation.DELETE, start, account.getTier(),
+                    store.delete(username) ? OperationResult.SUCCESS : OperationResult.STORAGE_ERROR);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return metrics.record(Operation.DELETE, start, EngineMetrics.NO_TIER, OperationResult.STORAGE_ERROR);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deposits an amount into an account.
+     *
+     * @param username The username of the account.
+     * @param amount The amount to deposit, in cents; must be positive.
+     * @return SUCCESS, INVALID_AMOUNT, UNKNOWN_ACCOUNT or STORAGE_ERROR.
+     */
+    public OperationResult deposit(String username, long amount) {
+        long start = System.nanoTime();
+        if (amount <= 0) {
+            return metrics.record(Operation.DEPOSIT, start, EngineMetrics.NO_TIER, OperationResult.INVALID_AMOUNT);
+        }
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            Account account = account(username);
+            if (account == null) {
+                return metrics.record(Operation.DEPOSIT, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+            }
+            return metrics.record(Operation.DEPOSIT, start, account.getTier(),
+                    persist(account, TransactionType.DEPOSIT, amount, account.getBalance() + amount));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Withdraws an amount from an account.
+     *
+     * @param username The username of the account.
+     * @param amount The amount to withdraw, in cents; must be positive.
+     * @return SUCCESS, INVALID_AMOUNT, INSUFFICIENT_FUNDS, UNKNOWN_ACCOUNT or STORAGE_ERROR.
+     */
+    public OperationResult withdraw(String username, long amount) {
+        long start = System.nanoTime();
+        if (amount <= 0) {
+            return metrics.record(Operation.WITHDRAW, start, EngineMetrics.NO_TIER, OperationResult.INVALID_AMOUNT);
+        }
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            Account account = account(username);
+            if (account == null) {
+                return metrics.record(Operation.WITHDRAW, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+            }
+            if (account.getBalance() < amount) {
+                return metrics.record(Operation.WITHDRAW, start, account.getTier(), OperationResult.INSUFFICIENT_FUNDS);
+            }
+            return metrics.record(Operation.WITHDRAW, start, account.getTier(),
+                    persist(account, TransactionType.WITHDRAWAL, amount, account.getBalance() - amount));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Transfers an amount from one account to another. Both balances change together: the
+     * debit and the credit are journaled as a pair in the same group commit and applied while
+     * the lock stripes of both accounts are held. The stripes are always locked in ascending
+     * order, so transfers in opposite directions between the same accounts cannot deadlock.
+     *
+     * @param from The username of the account to debit.
+     * @param to The username of the account to credit.
+     * @param amount The amount to transfer, in cents; must be positive.
+     * @return SUCCESS, INVALID_AMOUNT, SAME_ACCOUNT, INSUFFICIENT_FUNDS, UNKNOWN_ACCOUNT (if
+     *         either account does not exist) or STORAGE_ERROR.
+     */
+    public OperationResult transfer(String from, String to, long amount) {
+        long start = System.nanoTime();
+        if (amount <= 0) {
+            return metrics.record(Operation.TRANSFER, start, EngineMetrics.NO_TIER, OperationResult.INVALID_AMOUNT);
+        }
+        if (from.equals(to)) {
+            return metrics.record(Operation.TRANSFER, start, EngineMetrics.NO_TIER, OperationResult.SAME_ACCOUNT);
+        }
+        int fromStripe = locks.indexFor(from);
+        int toStripe = locks.indexFor(to);
+        ReentrantLock first = locks.get(Math.min(fromStripe, toStripe));
+        ReentrantLock second = locks.get(Math.max(fromStripe, toStripe));
+        first.lock();
+        try {
+            if (second != first) {
+                second.lock();
+            }
+            try {
+                Account payer = account(from);
+                Account payee = account(to);
+                if (payer == null || payee == null) {
+                    return metrics.record(Operation.TRANSFER, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+                }
+                if (payer.getBalance() < amount) {
+                    return metrics.record(Operation.TRANSFER, start, payer.getTier(), OperationResult.INSUFFICIENT_FUNDS);
+                }
+                int tier = payer.getTier();
+                long payerBalance = payer.getBalance() - amount;
+                long payeeBalance = payee.getBalance() + amount;
+                try {
+                    journal.appendTransfer(from, to, amount, payerBalance, payeeBalance);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return metrics.record(Operation.TRANSFER, start, tier, OperationResult.STORAGE_ERROR);
+                }
+                apply(payer, payerBalance);
+                apply(payee, payeeBalance);
+                publishIfLarge(from, TransactionType.TRANSFER_OUT, amount, payerBalance);
+                publishIfLarge(to, TransactionType.TRANSFER_IN, amount, payeeBalance);
+                return metrics.record(Operation.TRANSFER, start, tier, OperationResult.SUCCESS);
+            } finally {
+                if (second != first) {
+                    second.unlock();
+                }
+            }
+        } finally {
+            first.unlock();
+        }
+    }
+
+    /**
+     * Makes an online purchase, charging the purchase fee of the account's current tier.
+     *
+     * The amount and the fee are journaled as separate PURCHASE and FEE records in the same
+     * group commit as concurrent deposits and withdrawals, and the purchase only succeeds once
+     * both are durable.
+     *
+     * @param username The username of the account.
+     * @param amount The purchase amount, in cents; must be at least {@link #MINIMUM_PURCHASE}.
+     * @return SUCCESS, BELOW_MINIMUM_PURCHASE, RATE_LIMITED (if the account has made too many
+     *         purchases recently, see {@link #setPurchaseRateLimiter}), INSUFFICIENT_FUNDS,
+     *         UNKNOWN_ACCOUNT or STORAGE_ERROR.
+     */
+    public OperationResult purchase(String username, long amount) {
+        return limitedPurchase(username, amount, purchaseLimiter);
+    }
+
+    /**
+     * Makes a purchase that was already authorised elsewhere, e.g. one of an end-of-day batch
+     * file, charging the purchase fee of the account's current tier like
+     * {@link #purchase(String, long)} but without the per-customer rate limit, which is meant
+     * for interactive and HTTP purchases only.
+     *
+     * @param username The username of the account.
+     * @param amount The purchase amount, in cents; must be at least {@link #MINIMUM_PURCHASE}.
+     * @return SUCCESS, BELOW_MINIMUM_PURCHASE, INSUFFICIENT_FUNDS, UNKNOWN_ACCOUNT or
+     *         STORAGE_ERROR.
+     */
+    public OperationResult purchaseUnlimited(String username, long amount) {
+        return limitedPurchase(username, amount, null);
+    }
+
+    // Effects: Makes a purchase, taking a token from the account's bucket in limiter, unless
+    //          limiter is null, once the purchase has passed every other check; the token is
+    //          given back if the purchase could not be journaled.
+    // Modifies: the account, dirty
+    private OperationResult limitedPurchase(String username, long amount, RateLimiter limiter) {
+        long start = System.nanoTime();
+        if (amount < MINIMUM_PURCHASE) {
+            return metrics.record(Operation.PURCHASE, start, EngineMetrics.NO_TIER, OperationResult.BELOW_MINIMUM_PURCHASE);
+        }
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            Account account = account(username);
+            if (account == null) {
+                return metrics.record(Operation.PURCHASE, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+            }
+            int tier = account.getTier();
+            long fee = tiers.state(tier).getPurchaseFee();
+            long newBalance = account.getBalance() - amount - fee;
+            if (newBalance < 0) {
+                return metrics.record(Operation.PURCHASE, start, tier, OperationResult.INSUFFICIENT_FUNDS);
+            }
+            // Checked last, so that only purchases that go ahead use up the customer's quota.
+            long rateLimitTime = account.getRateLimitTime();
+            if (limiter != null && !limiter.tryAcquire(account, start)) {
+                return metrics.record(Operation.PURCHASE, start, tier, OperationResult.RATE_LIMITED);
+            }
+            try {
+                journal.appendPurchase(username, amount, fee, tier, newBalance);
+            } catch (IOException e) {
+                e.printStackTrace();
+                account.setRateLimitTime(rateLimitTime);
+                return metrics.record(Operation.PURCHASE, start, tier, OperationResult.STORAGE_ERROR);
+            }
+            apply(account, newBalance);
+            publishIfLarge(username, TransactionType.PURCHASE, amount, newBalance);
+            return metrics.record(Operation.PURCHASE, start, tier, OperationResult.SUCCESS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes an online purchase at most once per idempotency key. A purchase submitted again
+     * with the same key, e.g. after a double click or a client retry, is not charged again: it
+     * returns the outcome of the first submission, or DUPLICATE_REQUEST while that is still in
+     * progress. Keys are remembered for {@link #DEFAULT_IDEMPOTENCY_TTL_MILLIS}, up to the most
+     * recent {@link #DEFAULT_IDEMPOTENCY_KEYS} over all accounts. A submission that fails with
+     * STORAGE_ERROR or RATE_LIMITED took no effect and may be retried with the same key.
+     *
+     * @param username The username of the account.
+     * @param amount The purchase amount, in cents; must be at least {@link #MINIMUM_PURCHASE}.
+     * @param idempotencyKey Identifies the purchase, e.g. a UUID chosen by the client; null to
+     *        make the purchase unconditionally.
+     * @return The outcome of {@link #purchase(String, long)}, or DUPLICATE_REQUEST.
+     */
+    public OperationResult purchase(String username, long amount, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return purchase(username, amount);
+        }
+        long start = System.nanoTime();
+        String key = username + ':' + idempotencyKey;
+        OperationResult earlier = idempotencyKeys.claim(key, start);
+        if (earlier != null) {
+            metrics.record(Operation.PURCHASE, start, EngineMetrics.NO_TIER, OperationResult.DUPLICATE_REQUEST);
+            return earlier;
+        }
+        OperationResult result = purchase(username, amount);
+        if (result == OperationResult.STORAGE_ERROR || result == OperationResult.RATE_LIMITED) {
+            idempotencyKeys.release(key);
+        } else {
+            idempotencyKeys.complete(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current balance of an account.
+     *
+     * @param username The username of the account.
+     * @return The current balance, in cents.
+     * @throws IllegalArgumentException if the account does not exist.
+     */
+    public long balance(String username) {
+        long start = System.nanoTime();
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            Account account = account(username);
+            if (account == null) {
+                metrics.record(Operation.BALANCE, start, EngineMetrics.NO_TIER, OperationResult.UNKNOWN_ACCOUNT);
+                throw new IllegalArgumentException("Unknown account: " + username);
+            }
+            metrics.record(Operation.BALANCE, start, account.getTier(), OperationResult.SUCCESS);
+            return account.getBalance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the tier an account is currently in.
+     *
+     * @param username The username of the account.
+     * @return The shared state of the account's tier.
+     * @throws IllegalArgumentException if the account does not exist.
+     */
+    public CustomerState tierState(String username) {
+        ReentrantLock lock = locks.forKey(username);
+        lock.lock();
+        try {
+            Account account = account(username);
+            if (account == null) {
+                throw new IllegalArgumentException("Unknown account: " + username);
+            }
+            return tiers.state(account.getTier());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the tier level name ("Silver", "Gold" or "Platinum") of an account.
+     *
+     * @param username The username of the account.
+     * @return The tier level name.
+     * @throws IllegalArgumentException if the account does not exist.
+     */
+    public String tier(String username) {
+        return tierState(username).getLevel();
+    }
+
+    /**
+     * Reads a page of an account's transaction history, newest first.
+     *
+     * @param username The username of the account.
+     * @param cursor {@link TransactionHistory#NEWEST}, or a cursor returned for the account by
+     *        an earlier page or by {@link #skipHistory}.
+     * @param limit The maximum number of transactions to read.
+     * @return The transactions; empty if the account has none or no history is kept.
+     * @throws UncheckedIOException if the history could not be read.
+     */
+    public TransactionHistory.Page history(String username, long cursor, int limit) {
+        try {
+            return history == null ? TransactionHistory.EMPTY : history.page(username, cursor, limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Produces a full report by scanning every account in parallel, after a checkpoint so that
+     * balances still only held in the cache are included. Accounts that change during the scan
+     * are seen as of some moment during it.
+     *
+     * @param top The number of highest balances to list.
+     * @return The report.
+     * @throws IOException if the checkpoint or the scan failed.
+     */
+    public AccountReport report(int top) throws IOException {
+        checkpoint();
+        long start = System.nanoTime();
+        AccountReport.Accumulator totals = store.reduce(() -> new AccountReport.Accumulator(tiers, top),
+                AccountReport.Accumulator::add, AccountReport.Accumulator::merge);
+        return totals.toReport(feeRevenue(), System.nanoTime() - start);
+    }
+
+    /**
+     * Returns a report of the running totals kept up to date by every transaction, without
+     * scanning the accounts or listing the highest balances.
+     *
+     * @return The report.
+     */
+    public AccountReport liveReport() {
+        return AccountReport.live(tiers, statistics, feeRevenue());
+    }
+
+    private Map<Integer, Long> feeRevenue() {
+        return history == null ? Map.of() : history.feeRevenue();
+    }
+
+    /**
+     * Moves a history cursor to older transactions without reading them.
+     *
+     * @param username The username of the account.
+     * @param cursor {@link TransactionHistory#NEWEST}, or a cursor returned for the account.
+     * @param count The number of transactions to skip.
+     * @return The cursor of the transaction count places older.
+     * @throws UncheckedIOException if the history could not be read.
+     */
+    public long skipHistory(String username, long cursor, long count) {
+        try {
+            return history == null ? TransactionHistory.NONE : history.skip(username, cursor, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Effects: Sets the balance and, only if it crossed a tier threshold, moves the account to
+    //          its new tier and notifies the tier listeners.
+    // Modifies: account
+    // Requires: The caller holds the lock stripe for the account's username.
+    private void applyBalance(Account account, long newBalance) {
+        preserve(account);
+        long oldBalance = account.getBalance();
+        account.setBalance(newBalance);
+        int from = account.getTier();
+        if (tiers.contains(from, newBalance)) {
+            if (isCustomer(account)) {
+                statistics.move(from, oldBalance, from, newBalance);
+            }
+            return;
+        }
+        int to = tiers.indexFor(newBalance);
+        account.setTier(to);
+        if (isCustomer(account)) {
+            statistics.move(from, oldBalance, to, newBalance);
+        }
+        for (TierListener listener : tierListeners) {
+            listener.tierChanged(account.getUsername(), tiers.state(from), tiers.state(to), newBalance);
+        }
+        events.publish(AccountEvent.tierChange(account.getUsername(), from, tiers.state(from), to, tiers.state(to), newBalance));
+    }
+
+    // Effects: Publishes a LARGE_TRANSACTION event if amount is at least the threshold.
+    private void publishIfLarge(String username, TransactionType type, long amount, long newBalance) {
+        if (amount >= largeTransaction) {
+            events.publish(AccountEvent.largeTransaction(username, type, amount, newBalance));
+        }
+    }
+
+    private static boolean isCustomer(Account account) {
+        return "customer".equals(account.getRole());
+    }
+
+    // Effects: If a snapshot is being taken and this is the account's first change since its
+    //          cut, records the account as it was at the cut.
+    // Modifies: snapshotPreImages
+    // Requires: The caller holds the lock stripe for the account's username.
+    private void preserve(Account account) {
+        Map<String, Account> preImages = snapshotPreImages;
+        if (preImages != null && !preImages.containsKey(account.getUsername())) {
+            Account before = new Account(account.getUsername(), account.getRole(), account.getBalance());
+            before.setTier(account.getTier());
+            preImages.put(account.getUsername(), before);
+        }
+    }
+
+    // Effects: If a snapshot is being taken, records that username did not exist at its cut.
+    // Modifies: snapshotPreImages
+    // Requires: The caller holds the lock stripe for username, or the bulk create lock.
+    private void preserveAbsent(String username) {
+        Map<String, Account> preImages = snapshotPreImages;
+        if (preImages != null) {
+            preImages.putIfAbsent(username, CREATED_AFTER_CUT);
+        }
+    }
+
+    // Effects: Returns the cached account, or reads it from the store without caching it, or
+    //          returns null if it does not exist.
+    // Requires: The caller holds the lock stripe for username.
+    private Account peek(String username) throws IOException {
+        Account account = cache.getIfPresent(username);
+        return account != null ? account : load(username);
+    }
+
+    /**
+     * Writes a snapshot of every account as of a single instant to a new file in a directory,
+     * without pausing customer operations for the length of the snapshot.
+     *
+     * The cut is taken by briefly holding every lock stripe, at which point every journaled
+     * change has been applied and no other is in progress. Afterwards accounts are read one at
+     * a time while operations continue; the first change to an account after the cut records
+     * its state at the cut, and the snapshot uses that instead of the live state. Bulk creates
+     * that are in progress delay the cut until they finish.
+     *
+     * @param directory The directory to write the snapshot to.
+     * @return The snapshot file.
+     * @throws IOException if the store could not be read or the snapshot could not be written.
+     */
+    public Path snapshot(Path directory) throws IOException {
+        synchronized (snapshotLock) {
+            Map<String, Account> preImages = new ConcurrentHashMap<>();
+            long cutSequence;
+            long cutMillis;
+            bulkCreateLock.writeLock().lock();
+            try {
+                for (int i = 0; i < locks.size(); i++) {
+                    locks.get(i).lock();
+                }
+                cutSequence = journal.lastSequence();
+                cutMillis = System.currentTimeMillis();
+                snapshotPreImages = preImages;
+            } finally {
+                for (int i = locks.size() - 1; i >= 0; i--) {
+                    if (locks.get(i).isHeldByCurrentThread()) {
+                        locks.get(i).unlock();
+                    }
+                }
+                bulkCreateLock.writeLock().unlock();
+            }
+            try (SnapshotFile.Writer writer = new SnapshotFile.Writer(directory, cutMillis, cutSequence)) {
+                List<String> usernames = new ArrayList<>();
+                store.forEachUsername(usernames::add);
+                Collections.sort(usernames);
+                for (String username : usernames) {
+                    ReentrantLock lock = locks.forKey(username);
+                    lock.lock();
+                    try {
+                        Account before = preImages.get(username);
+                        Account account = before != null ? before : peek(username);
+                        if (account != null && account != CREATED_AFTER_CUT) {
+                            writer.write(username, account.getRole(), account.getTier(), account.getBalance());
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                // Accounts deleted after the cut but before the usernames were listed.
+                for (Account before : preImages.values()) {
+                    if (before != CREATED_AFTER_CUT && Collections.binarySearch(usernames, before.getUsername()) < 0) {
+                        writer.write(before.getUsername(), before.getRole(), before.getTier(), before.getBalance());
+                    }
+                }
+                return writer.commit();
+            } finally {
+                snapshotPreImages = null;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of every account to the directory periodic snapshots are written to.
+     *
+     * @return The snapshot file.
+     * @throws IOException if the store could not be read or the snapshot could not be written.
+     * @throws IllegalStateException if this engine has no snapshot directory.
+     */
+    public Path snapshot() throws IOException {
+        Path directory = snapshotDirectory;
+        if (directory == null) {
+            throw new IllegalStateException("No snapshot directory");
+        }
+        return snapshot(directory);
+    }
+
+    /**
+     * Starts taking snapshots periodically on a background thread, keeping only the newest.
+     *
+     * @param directory The directory to write the snapshots to.
+     * @param interval The time between snapshots.
+     * @param unit The unit of interval.
+     * @param keep The number of snapshots to keep.
+     */
+    public synchronized void startSnapshots(Path directory, long interval, TimeUnit unit, int keep) {
+        if (snapshotter != null) {
+            return;
+        }
+        snapshotDirectory = directory;
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(directory);
+                SnapshotFile.prune(directory, keep);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Starts writing the metrics to a file periodically on a background thread. The file is
+     * also written when the engine is closed.
+     *
+     * @param file The file to write, replaced each time.
+     * @param interval The time between writes.
+     * @param unit The unit of interval.
+     */
+    public synchronized void startMetricsDump(Path file, long interval, TimeUnit unit) {
+        if (metricsWriter != null) {
+            return;
+        }
+        metricsFile = file;
+        metricsWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metricsWriter.scheduleWithFixedDelay(() -> {
+            try {
+                metrics.dump(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Credits a month's interest to every customer account and then charges its monthly
+     * maintenance fee, at the rates of the tier each account is in, as given by its
+     * {@link CustomerState}.
+     *
+     * The accounts are split by lock stripe into {@link #ACCRUAL_CHUNKS} chunks, which are
+     * accrued in parallel. Each chunk holds only its own stripes while its interest and fees
+     * are journaled as one batch and applied, so customers elsewhere are not held up, and
+     * concurrent chunks share the journal's group commits. A finished chunk is recorded in
+     * the accrual log in the journal directory; running the accrual again for the same
+     * period, e.g. after a crash or a shutdown part way through, only accrues the chunks not
+     * yet recorded, and a chunk whose batch was journaled but not recorded is recorded during
+     * recovery, so no account is accrued twice for a period. An account the history shows was
+     * created after the period ended is not accrued; an engine that keeps no history cannot
+     * tell, and accrues every account.
+     *
+     * @param period The month to accrue.
+     * @return A report of the accounts accrued by this call; not finished if the engine was
+     *         closed part way through.
+     * @throws IOException if the accrual log or the store could not be read, or the journal
+     *         could not be written.
+     */
+    public AccrualReport accrue(YearMonth period) throws IOException {
+        long start = System.nanoTime();
+        String name = period.toString();
+        long periodEnd = period.plusMonths(1).atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        int chunks = Math.min(ACCRUAL_CHUNKS, locks.size());
+        BitSet done = accruals.completed(name, chunks);
+        AccrualReport report = new AccrualReport(name, chunks, done.cardinality());
+        List<List<String>> usernames = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            usernames.add(new ArrayList<>());
+        }
+        if (done.cardinality() < chunks) {
+            store.forEachUsername(username -> {
+                int chunk = (int) ((long) locks.indexFor(username) * chunks / locks.size());
+                if (!done.get(chunk)) {
+                    usernames.get(chunk).add(username);
+                }
+            });
+            try {
+                IntStream.range(0, chunks).filter(chunk -> !done.get(chunk)).parallel().forEach(chunk -> {
+                    try {
+                        accrueChunk(name, periodEnd, chunk, chunks, usernames.get(chunk), report);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    // Effects: Unless the engine is closing, journals and applies the interest and fees of
+    //          the customer accounts of one chunk that existed before periodEnd as a single
+    //          batch while holding the chunk's lock stripes, then records the chunk in the
+    //          accrual log.
+    // Modifies: the accounts of the chunk, store, dirty, accruals, report
+    private void accrueChunk(String period, long periodEnd, int chunk, int chunks, List<String> usernames,
+            AccrualReport report) throws IOException {
+        int firstStripe = chunk * locks.size() / chunks;
+        int endStripe = (chunk + 1) * locks.size() / chunks;
+        accrualLock.readLock().lock();
+        try {
+            if (closing) {
+                return;
+            }
+            for (int stripe = firstStripe; stripe < endStripe; stripe++) {
+                locks.get(stripe).lock();
+            }
+            try {
+                List<Account> accounts = new ArrayList<>(usernames.size());
+                List<String> names = new ArrayList<>(usernames.size());
+                long[] before = new long[usernames.size()];
+                long[] interest = new long[usernames.size()];
+                long[] fees = new long[usernames.size()];
+                int[] tierIndexes = new int[usernames.size()];
+                for (String username : usernames) {
+                    Account account = peek(username);
+                    if (account == null || !isCustomer(account)
+                            || history != null && history.createdMillis(username) >= periodEnd) {
+                        continue;
+                    }
+                    CustomerState state = tiers.state(account.getTier());
+                    long balance = account.getBalance();
+                    long credit = state.monthlyInterest(balance);
+                    long fee = state.monthlyFee(balance + credit);
+                    if (credit == 0 && fee == 0) {
+                        continue;
+                    }
+                    int i = accounts.size();
+                    accounts.add(account);
+                    names.add(username);
+                    before[i] = balance;
+                    interest[i] = credit;
+                    fees[i] = fee;
+                    tierIndexes[i] = account.getTier();
+                }
+                journal.appendAccrual(period, chunk, chunks, names, before, interest, fees, tierIndexes);
+                for (int i = 0; i < accounts.size(); i++) {
+                    Account account = accounts.get(i);
+                    long newBalance = before[i] + interest[i] - fees[i];
+                    if (cache.getIfPresent(names.get(i)) == account) {
+                        apply(account, newBalance);
+                    } else {
+                        // Not cached: write straight to the store, which the next checkpoint forces.
+                        applyBalance(account, newBalance);
+                        store.saveBalance(names.get(i), newBalance, account.getTier());
+                    }
+                    report.add(interest[i], fees[i]);
+                }
+            } finally {
+                for (int stripe = endStripe - 1; stripe >= firstStripe; stripe--) {
+                    locks.get(stripe).unlock();
+                }
+            }
+            accruals.markCompleted(period, chunk, chunks);
+            report.chunkCompleted();
+        } finally {
+            accrualLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Accrues the previous month, if it has not been accrued yet, now and then at a fixed
+     * interval on a background thread, so that each month is accrued soon after it ends and
+     * an accrual interrupted by a shutdown is resumed when the engine starts again. The month
+     * in which automatic accrual was first started is recorded in the accrual log, and no
+     * earlier month is ever accrued automatically, since the store may not have existed then.
+     *
+     * @param interval The time between checks.
+     * @param unit The unit of interval.
+     */
+    public synchronized void startAccrual(long interval, TimeUnit unit) {
+        if (accruer != null) {
+            return;
+        }
+        accruer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-accrual");
+            thread.setDaemon(true);
+            return thread;
+        });
+        accruer.scheduleWithFixedDelay(() -> {
+            try {
+                YearMonth now = YearMonth.now();
+                YearMonth previous = now.minusMonths(1);
+                if (!previous.isBefore(accruals.firstPeriod(now))) {
+                    accrue(previous);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, 0, interval, unit);
+    }
+
+    // Effects: Journals the transaction and, if that succeeds, applies newBalance to the account
+    //          and publishes it if it is large.
+    // Modifies: account, dirty
+    // Requires: The caller holds the lock stripe for the account's username.
+    private OperationResult persist(Account account, TransactionType type, long amount, long newBalance) {
+        try {
+            journal.append(type, account.getUsername(), amount, newBalance);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return OperationResult.STORAGE_ERROR;
+        }
+        apply(account, newBalance);
+        publishIfLarge(account.getUsername(), type, amount, newBalance);
+        return OperationResult.SUCCESS;
+    }
+
+    // Effects: Queues the account for the next checkpoint and applies a journaled balance to
+    //          it; queued first, so that a checkpoint run by a tier listener writes it back.
+    // Modifies: account, dirty
+    // Requires: The caller holds the lock stripe for the account's username.
+    private void apply(Account account, long newBalance) {
+        account.setDirty(true);
+        dirty.add(account.getUsername());
+        applyBalance(account, newBalance);
+    }
+
+    // Effects: Writes the last journaled balance of every account in the un-checkpointed
+    //          segments to the store and records the accrual chunks they finished, then
+    //          deletes those segments.
+    // Modifies: store, journal
+    private void recover() throws IOException {
+        Map<String, Long> balances = new HashMap<>();
+        List<TransactionJournal.Entry> replayed = new ArrayList<>();
+        List<TransactionJournal.Entry> accrued = new ArrayList<>();
+        long current = journal.replay(entry -> {
+            if (history != null) {
+                replayed.add(entry);
+            }
+            if (entry.getType() == TransactionType.ACCRUAL) {
+                accrued.add(entry);
+            } else if (entry.getType() == TransactionType.DELETE) {
+                balances.put(entry.getUsername(), null);
+            } else {
+                balances.put(entry.getUsername(), entry.getBalanceAfter());
+            }
+        });
+        for (Map.Entry<String, Long> entry : balances.entrySet()) {
+            if (entry.getValue() == null) {
+                store.delete(entry.getKey());
+            } else if (store.exists(entry.getKey())) {
+                store.saveBalance(entry.getKey(), entry.getValue(), tiers.indexFor(entry.getValue()));
+            }
+        }
+        store.flush();
+        if (history != null) {
+            history.append(replayed);
+            history.flush();
+        }
+        for (TransactionJournal.Entry entry : accrued) {
+            accruals.markCompleted(entry.getUsername(), (int) entry.getAmount(), (int) entry.getBalanceAfter());
+        }
+        journal.deleteSegmentsBefore(current);
+    }
+
+    /**
+     * Writes every balance changed since the last checkpoint to the store in one batch and
+     * discards the journal segments that are no longer needed for recovery.
+     *
+     * @throws IOException if the journal could not be rotated or a balance could not be written.
+     */
+    public void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        OperationResult result = OperationResult.STORAGE_ERROR;
+        accrualLock.writeLock().lock();
+        try {
+            synchronized (checkpointLock) {
+                long current = rotate();
+                for (String username : dirty) {
+                    dirty.remove(username);
+                    ReentrantLock lock = locks.forKey(username);
+                    lock.lock();
+                    try {
+                        Account account = cache.getIfPresent(username);
+                        if (account != null) {
+                            writeBack(account);
+                        }
+                    } catch (IOException e) {
+                        dirty.add(username);
+                        throw e;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                store.flush();
+                if (history != null) {
+                    history.flush();
+                }
+                journal.deleteSegmentsBefore(current);
+            }
+            result = OperationResult.SUCCESS;
+        } finally {
+            accrualLock.writeLock().unlock();
+            metrics.record(Operation.CHECKPOINT, start, EngineMetrics.NO_TIER, result);
+        }
+    }
+
+    // Effects: Starts a new journal segment while holding every lock stripe, so that every
+    //          record in the older segments has been applied and its account queued in dirty
+    //          before the checkpoint writes the queued accounts back and discards them.
+    // Modifies: journal
+    private long rotate() throws IOException {
+        int locked = 0;
+        try {
+            for (; locked < locks.size(); locked++) {
+                locks.get(locked).lock();
+            }
+            return journal.rotate();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    // Effects: Writes the metrics to the metrics file, if there is one.
+    private void dumpMetrics() {
+        Path file = metricsFile;
+        if (file != null) {
+            try {
+                metrics.dump(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Starts checkpointing on a background thread at a fixed interval.
+     *
+     * @param interval The time between checkpoints.
+     * @param unit The unit of interval.
+     */
+    public synchronized void startCheckpointing(long interval, TimeUnit unit) {
+        if (checkpointer != null) {
+            return;
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stops background checkpointing, takes a final checkpoint and closes the journal and the
+     * store.
+     *
+     * @throws IOException if the final checkpoint or closing the journal or store failed.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        synchronized (this) {
+            if (accruer != null) {
+                accruer.shutdown();
+                accruer = null;
+            }
+            if (checkpointer != null) {
+                checkpointer.shutdown();
+                checkpointer = null;
+            }
+            if (snapshotter != null) {
+                snapshotter.shutdown();
+                snapshotter = null;
+            }
+            if (metricsWriter != null) {
+                metricsWriter.shutdown();
+                metricsWriter = null;
+            }
+        }
+        verifier.shutdown();
+        synchronized (snapshotLock) {
+            try {
+                checkpoint();
+            } finally {
+                try {
+                    journal.close();
+                } finally {
+                    try {
+                        if (history != null) {
+                            history.close();
+                        }
+                    } finally {
+                        store.close();
+                        dumpMetrics();
+                    }
+                }
+            }
+        }
+    }
+}
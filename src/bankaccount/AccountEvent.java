@@ -0,0 +1,134 @@
+package bankaccount;
+
+/**
+ * Something a manager may want to see as it happens, published by the {@link AccountEngine}
+ * on its {@link EventBus}: an account moving to a different tier, or a transaction of at
+ * least the engine's large transaction threshold.
+ *
+ * This class is immutable.
+ */
+public final class AccountEvent {
+
+    public enum Type {
+        TIER_CHANGE,
+        LARGE_TRANSACTION
+    }
+
+    private final Type type;
+    private final long timeMillis;
+    private final String username;
+    private final long balance;
+    private final int fromTier;
+    private final int toTier;
+    private final String fromLevel;
+    private final String toLevel;
+    private final TransactionType transaction;
+    private final long amount;
+
+    private AccountEvent(Type type, String username, long balance, int fromTier, int toTier, String fromLevel,
+            String toLevel, TransactionType transaction, long amount) {
+        this.type = type;
+        this.timeMillis = System.currentTimeMillis();
+        this.username = username;
+        this.balance = balance;
+        this.fromTier = fromTier;
+        this.toTier = toTier;
+        this.fromLevel = fromLevel;
+        this.toLevel = toLevel;
+        this.transaction = transaction;
+        this.amount = amount;
+    }
+
+    /**
+     * Returns the event of an account moving between tiers.
+     *
+     * @param username The username of the account.
+     * @param fromTier The index of the previous tier.
+     * @param from The previous tier.
+     * @param toTier The index of the new tier.
+     * @param to The new tier.
+     * @param balance The balance that caused the move, in cents.
+     * @return The event.
+     */
+    public static AccountEvent tierChange(String username, int fromTier, CustomerState from, int toTier,
+            CustomerState to, long balance) {
+        return new AccountEvent(Type.TIER_CHANGE, username, balance, fromTier, toTier, from.getLevel(), to.getLevel(),
+                null, 0);
+    }
+
+    /**
+     * Returns the event of a large transaction.
+     *
+     * @param username The username of the account.
+     * @param transaction The type of the transaction.
+     * @param amount The amount of the transaction, in cents.
+     * @param balance The balance after the transaction, in cents.
+     * @return The event.
+     */
+    public static AccountEvent largeTransaction(String username, TransactionType transaction, long amount, long balance) {
+        return new AccountEvent(Type.LARGE_TRANSACTION, username, balance, -1, -1, null, null, transaction, amount);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    public int getFromTier() {
+        return fromTier;
+    }
+
+    public int getToTier() {
+        return toTier;
+    }
+
+    public String getFromLevel() {
+        return fromLevel;
+    }
+
+    public String getToLevel() {
+        return toLevel;
+    }
+
+    /**
+     * Returns whether this is a move to a higher tier.
+     *
+     * @return True for a TIER_CHANGE to a higher tier, false otherwise.
+     */
+    public boolean isUpgrade() {
+        return type == Type.TIER_CHANGE && toTier > fromTier;
+    }
+
+    public TransactionType getTransaction() {
+        return transaction;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(username);
+        if (type == Type.TIER_CHANGE) {
+            builder.append(": ").append(fromLevel).append(" -> ").append(toLevel).append(" at $");
+            Money.appendTo(builder, balance);
+        } else {
+            builder.append(": ").append(transaction).append(" of $");
+            Money.appendTo(builder, amount).append(", balance $");
+            Money.appendTo(builder, balance);
+        }
+        return builder.toString();
+    }
+}
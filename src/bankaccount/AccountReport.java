@@ -0,0 +1,287 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Aggregate figures over all customer accounts for the manager: total assets, the number of
+ * customers and their balances in each tier, the fee revenue of each tier and the customers
+ * with the highest balances.
+ *
+ * A full report ({@link AccountEngine#report(int)}) scans every account in parallel; a live
+ * report ({@link AccountEngine#liveReport()}) is read from totals the engine updates on every
+ * transaction, and has no top balances.
+ *
+ * Usage: {@code java bankaccount.AccountReport [topN]} prints a full report. This must not run
+ * while the JavaFX application has the same data directory open.
+ *
+ * This class is immutable.
+ */
+public final class AccountReport {
+
+    public static final int DEFAULT_TOP = 10;
+
+    /**
+     * The figures of one tier.
+     *
+     * This class is immutable.
+     */
+    public static final class Tier {
+        private final String level;
+        private final long customers;
+        private final long balance;
+        private final long feeRevenue;
+
+        Tier(String level, long customers, long balance, long feeRevenue) {
+            this.level = level;
+            this.customers = customers;
+            this.balance = balance;
+            this.feeRevenue = feeRevenue;
+        }
+
+        public String getLevel() {
+            return level;
+        }
+
+        public long getCustomers() {
+            return customers;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+
+        public long getFeeRevenue() {
+            return feeRevenue;
+        }
+    }
+
+    /**
+     * A customer among the highest balances.
+     *
+     * This class is immutable.
+     */
+    public static final class TopAccount {
+        private final String username;
+        private final long balance;
+
+        TopAccount(String username, long balance) {
+            this.username = username;
+            this.balance = balance;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+    }
+
+    /**
+     * Folds scanned accounts into per-tier totals and the highest balances; one per thread of
+     * a scan, merged at the end.
+     *
+     * This class is not thread-safe.
+     */
+    static final class Accumulator {
+        private final TierTable tiers;
+        private final int top;
+        private final long[] customers;
+        private final long[] balances;
+        // The highest balances so far, lowest first.
+        private final PriorityQueue<TopAccount> highest;
+
+        Accumulator(TierTable tiers, int top) {
+            this.tiers = tiers;
+            this.top = top;
+            this.customers = new long[tiers.size()];
+            this.balances = new long[tiers.size()];
+            this.highest = new PriorityQueue<>(Math.max(1, top + 1), (a, b) -> Long.compare(a.balance, b.balance));
+        }
+
+        // Modifies: this
+        void add(AccountStore.Record record) {
+            if (!record.isCustomer()) {
+                return;
+            }
+            long balance = record.balance();
+            int tier = tiers.indexFor(balance);
+            customers[tier]++;
+            balances[tier] += balance;
+            offer(balance, record);
+        }
+
+        // Effects: Keeps the account if it is among the highest balances, decoding its
+        //          username only then.
+        private void offer(long balance, AccountStore.Record record) {
+            if (top > 0 && (highest.size() < top || balance > highest.peek().balance)) {
+                highest.add(new TopAccount(record.username(), balance));
+                if (highest.size() > top) {
+                    highest.poll();
+                }
+            }
+        }
+
+        // Effects: Adds the totals and highest balances of other to this and returns this.
+        // Modifies: this
+        Accumulator merge(Accumulator other) {
+            for (int i = 0; i < customers.length; i++) {
+                customers[i] += other.customers[i];
+                balances[i] += other.balances[i];
+            }
+            for (TopAccount account : other.highest) {
+                highest.add(account);
+                if (highest.size() > top) {
+                    highest.poll();
+                }
+            }
+            return this;
+        }
+
+        AccountReport toReport(Map<Integer, Long> feeRevenue, long elapsedNanos) {
+            List<TopAccount> ranked = new ArrayList<>(highest);
+            ranked.sort((a, b) -> Long.compare(b.balance, a.balance));
+            return new AccountReport(tiers(tiers, customers, balances, feeRevenue), unattributed(tiers, feeRevenue),
+                    ranked, elapsedNanos);
+        }
+    }
+
+    private final List<Tier> tiers;
+    private final long unattributedFees;
+    private final List<TopAccount> top;
+    private final long elapsedNanos;
+
+    private AccountReport(List<Tier> tiers, long unattributedFees, List<TopAccount> top, long elapsedNanos) {
+        this.tiers = Collections.unmodifiableList(tiers);
+        this.unattributedFees = unattributedFees;
+        this.top = Collections.unmodifiableList(top);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // Effects: Returns a live report read from running totals.
+    static AccountReport live(TierTable table, AccountStatistics statistics, Map<Integer, Long> feeRevenue) {
+        long[] customers = new long[table.size()];
+        long[] balances = new long[table.size()];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = statistics.customers(i);
+            balances[i] = statistics.balance(i);
+        }
+        return new AccountReport(tiers(table, customers, balances, feeRevenue), unattributed(table, feeRevenue),
+                List.of(), 0);
+    }
+
+    // Effects: Returns the figures of every tier in the table.
+    private static List<Tier> tiers(TierTable table, long[] customers, long[] balances, Map<Integer, Long> feeRevenue) {
+        List<Tier> result = new ArrayList<>(customers.length);
+        for (int i = 0; i < customers.length; i++) {
+            result.add(new Tier(table.state(i).getLevel(), customers[i], balances[i], feeRevenue.getOrDefault(i, 0L)));
+        }
+        return result;
+    }
+
+    // Effects: Returns the fees recorded without a tier, or under a tier the table no longer has.
+    private static long unattributed(TierTable table, Map<Integer, Long> feeRevenue) {
+        long total = 0;
+        for (Map.Entry<Integer, Long> fee : feeRevenue.entrySet()) {
+            if (fee.getKey() < 0 || fee.getKey() >= table.size()) {
+                total += fee.getValue();
+            }
+        }
+        return total;
+    }
+
+    public List<Tier> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * Returns the customers with the highest balances, highest first.
+     *
+     * @return The top balances; empty for a live report.
+     */
+    public List<TopAccount> getTop() {
+        return top;
+    }
+
+    public long getTotalAssets() {
+        long total = 0;
+        for (Tier tier : tiers) {
+            total += tier.balance;
+        }
+        return total;
+    }
+
+    public long getCustomers() {
+        long total = 0;
+        for (Tier tier : tiers) {
+            total += tier.customers;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the fees that are not in the revenue of any tier: those charged before fees
+     * recorded their tier, or under a tier the current table does not have.
+     *
+     * @return The total of those fees, in cents.
+     */
+    public long getUnattributedFees() {
+        return unattributedFees;
+    }
+
+    public long getFeeRevenue() {
+        long total = unattributedFees;
+        for (Tier tier : tiers) {
+            total += tier.feeRevenue;
+        }
+        return total;
+    }
+
+    /**
+     * Returns how long the scan behind a full report took.
+     *
+     * @return The scan time in nanoseconds, or 0 for a live report.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Total assets: $%s across %,d customers%n", Money.format(getTotalAssets()), getCustomers()));
+        for (Tier tier : tiers) {
+            text.append(String.format("  %-10s %,10d customers  $%16s  fees $%s%n", tier.level, tier.customers,
+                    Money.format(tier.balance), Money.format(tier.feeRevenue)));
+        }
+        if (unattributedFees > 0) {
+            text.append(String.format("  %-10s %39s  fees $%s%n", "Other", "", Money.format(unattributedFees)));
+        }
+        text.append(String.format("Fee revenue: $%s%n", Money.format(getFeeRevenue())));
+        if (!top.isEmpty()) {
+            text.append(String.format("Top %d balances:%n", top.size()));
+            for (int i = 0; i < top.size(); i++) {
+                text.append(String.format("  %2d. %-32s $%s%n", i + 1, top.get(i).username, Money.format(top.get(i).balance)));
+            }
+        }
+        if (elapsedNanos > 0) {
+            text.append(String.format("Scanned in %.3f s%n", elapsedNanos / 1e9));
+        }
+        return text.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int top = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TOP;
+        try {
+            System.out.print(AccountEngine.getInstance().report(top));
+        } finally {
+            AccountEngine.shutdown();
+        }
+    }
+}
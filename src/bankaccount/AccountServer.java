@@ -0,0 +1,578 @@
+package bankaccount;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless HTTP/JSON front end to an {@link AccountEngine}, for serving clients without the
+ * JavaFX user interface and for load testing.
+ *
+ * Endpoints (request and response bodies are flat JSON objects, amounts are dollar strings):
+ * <ul>
+ * <li>{@code POST /login {"username", "password"}} returns {@code {"token", "role"}}; the
+ * token is sent as {@code Authorization: Bearer <token>} on every other request. A token
+ * expires after {@code bankaccount.sessionTtlMillis} (half an hour by default), and when the
+ * server deletes its account.</li>
+ * <li>{@code POST /logout} ends the session.</li>
+ * <li>{@code GET /balance} returns {@code {"username", "balance", "tier"}}.</li>
+ * <li>{@code POST /deposit}, {@code /withdraw} and {@code /purchase {"amount"}}, and
+ * {@code POST /transfer {"to", "amount"}}, return {@code {"result", "balance"}}. A purchase
+ * may carry an {@code Idempotency-Key} header (or {@code "idempotencyKey"} field).</li>
+ * <li>{@code POST /manager/customers {"username", "password", "balance"}} and
+ * {@code DELETE /manager/customers/<username>} add and delete customers; they need a manager
+ * session. The manager logs in with the username {@code bankaccount.managerUsername}
+ * ({@code admin} by default) and the password {@code bankaccount.managerPassword}; if no
+ * password is set, only manager accounts in the store can log in as managers.</li>
+ * </ul>
+ * Every {@link OperationResult} other than SUCCESS is returned as {@code {"error": result}}
+ * with a matching status code, e.g. 422 for INSUFFICIENT_FUNDS and 429 for RATE_LIMITED.
+ *
+ * Each request runs on a thread of a cached pool, so requests waiting on a journal group
+ * commit or a password check do not hold up others; password checks themselves queue on the
+ * engine's verifier threads.
+ *
+ * Usage: {@code java bankaccount.AccountServer [port]}, by default on
+ * {@code bankaccount.httpPort} or {@value #DEFAULT_PORT}, serving the shared engine. The
+ * server listens on the loopback interface only unless {@code bankaccount.httpHost} names
+ * another address to bind, e.g. {@code 0.0.0.0} for every interface.
+ *
+ * This class is thread-safe.
+ */
+public final class AccountServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final String DEFAULT_MANAGER_USERNAME = "admin";
+    public static final long DEFAULT_SESSION_TTL_MILLIS = 30 * 60 * 1000;
+
+    private static final int BACKLOG = 4096;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int MAX_IDLE_CONNECTIONS = 10_000;
+
+    static {
+        // Unless told otherwise, the JDK server sends the headers and the body of a response in
+        // separate packets held back by Nagle's algorithm, adding tens of milliseconds to every
+        // request, and closes keep-alive connections beyond the 200th that fall idle, which
+        // thousands of clients exceed. Both settings are read once, when the first server
+        // starts, and can still be overridden on the command line.
+        setDefault("sun.net.httpserver.nodelay", "true");
+        setDefault("sun.net.httpserver.maxIdleConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    // The account and role a token was issued for, and when the token expires.
+    private static final class Session {
+        final String username;
+        final String role;
+        final long expiresNanos;
+
+        Session(String username, String role, long expiresNanos) {
+            this.username = username;
+            this.role = role;
+            this.expiresNanos = expiresNanos;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return nowNanos - expiresNanos >= 0;
+        }
+    }
+
+    // Ends a request early with a status and an error code.
+    private static final class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        RequestException(int status, String error) {
+            super(error, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private final AccountEngine engine;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final String managerUsername;
+    private final byte[] managerPassword;
+    private final long sessionTtlNanos;
+    // When expired sessions are next swept out of sessions.
+    private volatile long nextSweepNanos;
+
+    /**
+     * Creates a server bound to an address, with the manager credentials and session lifetime
+     * given by the {@code bankaccount.managerUsername}, {@code bankaccount.managerPassword}
+     * and {@code bankaccount.sessionTtlMillis} system properties. It accepts requests once
+     * {@link #start()} is called.
+     *
+     * @param engine The engine to serve.
+     * @param address The address to listen on; port 0 picks a free port.
+     * @throws IOException if the address could not be bound.
+     */
+    public AccountServer(AccountEngine engine, InetSocketAddress address) throws IOException {
+        this(engine, address, System.getProperty("bankaccount.managerUsername", DEFAULT_MANAGER_USERNAME),
+                System.getProperty("bankaccount.managerPassword"),
+                Long.getLong("bankaccount.sessionTtlMillis", DEFAULT_SESSION_TTL_MILLIS), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a server bound to an address. It accepts requests once {@link #start()} is called.
+     *
+     * @param engine The engine to serve.
+     * @param address The address to listen on; port 0 picks a free port.
+     * @param managerUsername The username the manager logs in with.
+     * @param managerPassword The password the manager logs in with, or null to let only
+     *        manager accounts in the store log in as managers.
+     * @param sessionTtl How long a token stays valid after it is issued.
+     * @param unit The unit of sessionTtl.
+     * @throws IOException if the address could not be bound.
+     */
+    public AccountServer(AccountEngine engine, InetSocketAddress address, String managerUsername,
+            String managerPassword, long sessionTtl, TimeUnit unit) throws IOException {
+        this.engine = engine;
+        this.managerUsername = managerUsername;
+        this.managerPassword = managerPassword == null ? null : managerPassword.getBytes(StandardCharsets.UTF_8);
+        this.sessionTtlNanos = unit.toNanos(sessionTtl);
+        this.nextSweepNanos = System.nanoTime() + sessionTtlNanos;
+        this.server = HttpServer.create(address, BACKLOG);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "account-http-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for requests in progress and ends every
+     * session. The engine is left open.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        sessions.clear();
+    }
+
+    // Effects: Routes a request to its endpoint and sends the response.
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/login")) {
+                requireMethod(method, "POST");
+                login(exchange, parse(exchange));
+            } else if (path.equals("/logout")) {
+                requireMethod(method, "POST");
+                String token = token(exchange);
+                if (token != null) {
+                    sessions.remove(token);
+                }
+                send(exchange, 200, "{}");
+            } else if (path.equals("/balance")) {
+                requireMethod(method, "GET");
+                Session session = session(exchange, "customer");
+                sendBalance(exchange, session.username, null);
+            } else if (path.equals("/deposit") || path.equals("/withdraw") || path.equals("/purchase")
+                    || path.equals("/transfer")) {
+                requireMethod(method, "POST");
+                Session session = session(exchange, "customer");
+                transact(exchange, session.username, path.substring(1), parse(exchange));
+            } else if (path.equals("/manager/customers")) {
+                requireMethod(method, "POST");
+                session(exchange, "manager");
+                Map<String, String> body = parse(exchange);
+                String balance = body.get("balance");
+                sendResult(exchange, engine.createAccount(required(body, "username"), required(body, "password"),
+                        balance == null ? Money.of(100) : amount(balance)), "{}");
+            } else if (path.startsWith("/manager/customers/")) {
+                requireMethod(method, "DELETE");
+                session(exchange, "manager");
+                String username = path.substring("/manager/customers/".length());
+                OperationResult result = engine.deleteAccount(username);
+                if (result == OperationResult.SUCCESS) {
+                    sessions.values().removeIf(session -> session.username.equals(username));
+                }
+                sendResult(exchange, result, "{}");
+            } else {
+                throw new RequestException(404, "NOT_FOUND");
+            }
+        } catch (RequestException e) {
+            send(exchange, e.status, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            send(exchange, 500, error("INTERNAL_ERROR"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Effects: Checks credentials, those of the configured manager first, and issues a token.
+    // Modifies: sessions
+    private void login(HttpExchange exchange, Map<String, String> body) throws IOException, RequestException {
+        String username = required(body, "username");
+        String password = required(body, "password");
+        String role;
+        if (isManager(username, password)) {
+            role = "manager";
+        } else {
+            try {
+                role = engine.authenticateAsync(username, password).join();
+            } catch (CompletionException e) {
+                e.printStackTrace();
+                throw new RequestException(500, OperationResult.STORAGE_ERROR.name());
+            }
+        }
+        if (role == null) {
+            throw new RequestException(401, OperationResult.INVALID_CREDENTIALS.name());
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        long now = System.nanoTime();
+        sweep(now);
+        sessions.put(token.toString(), new Session(username, role, now + sessionTtlNanos));
+        send(exchange, 200, "{\"token\":\"" + token + "\",\"role\":\"" + role + "\"}");
+    }
+
+    // Effects: Returns whether the credentials are those of the configured manager, comparing
+    //          the passwords in time independent of where they differ.
+    private boolean isManager(String username, String password) {
+        return managerPassword != null && username.equals(managerUsername)
+                & MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), managerPassword);
+    }
+
+    // Effects: Removes the expired sessions if they have not been swept for a session lifetime,
+    //          so that tokens that are never used again do not accumulate.
+    // Modifies: sessions, nextSweepNanos
+    private void sweep(long nowNanos) {
+        if (nowNanos - nextSweepNanos >= 0) {
+            nextSweepNanos = nowNanos + sessionTtlNanos;
+            sessions.values().removeIf(session -> session.isExpired(nowNanos));
+        }
+    }
+
+    // Effects: Carries out a deposit, withdrawal, purchase or transfer for the session's account.
+    private void transact(HttpExchange exchange, String username, String action, Map<String, String> body)
+            throws IOException, RequestException {
+        long amount = amount(required(body, "amount"));
+        OperationResult result;
+        switch (action) {
+            case "deposit":
+                result = engine.deposit(username, amount);
+                break;
+            case "withdraw":
+                result = engine.withdraw(username, amount);
+                break;
+            case "purchase":
+                String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+                result = engine.purchase(username, amount, key != null ? key : body.get("idempotencyKey"));
+                break;
+            default:
+                result = engine.transfer(username, required(body, "to"), amount);
+                break;
+        }
+        if (result == OperationResult.SUCCESS) {
+            sendBalance(exchange, username, result);
+        } else {
+            sendResult(exchange, result, null);
+        }
+    }
+
+    private void sendBalance(HttpExchange exchange, String username, OperationResult result) throws IOException, RequestException {
+        StringBuilder json = new StringBuilder("{");
+        if (result != null) {
+            json.append("\"result\":\"").append(result).append("\",");
+        }
+        try {
+            json.append("\"username\":");
+            quote(json, username);
+            json.append(",\"balance\":\"");
+            Money.appendTo(json, engine.balance(username));
+            json.append("\",\"tier\":\"").append(engine.tier(username)).append("\"}");
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(404, OperationResult.UNKNOWN_ACCOUNT.name());
+        }
+        send(exchange, 200, json.toString());
+    }
+
+    private void sendResult(HttpExchange exchange, OperationResult result, String success) throws IOException {
+        if (result == OperationResult.SUCCESS) {
+            send(exchange, 200, success);
+        } else {
+            send(exchange, status(result), error(result.name()));
+        }
+    }
+
+    // Effects: Returns the HTTP status code of an unsuccessful outcome.
+    private static int status(OperationResult result) {
+        switch (result) {
+            case INVALID_AMOUNT:
+            case BELOW_MINIMUM_PURCHASE:
+            case SAME_ACCOUNT:
+                return 400;
+            case INVALID_CREDENTIALS:
+                return 401;
+            case UNKNOWN_ACCOUNT:
+                return 404;
+            case ACCOUNT_EXISTS:
+            case DUPLICATE_REQUEST:
+                return 409;
+            case INSUFFICIENT_FUNDS:
+                return 422;
+            case RATE_LIMITED:
+                return 429;
+            default:
+                return 500;
+        }
+    }
+
+    private Session session(HttpExchange exchange, String role) throws RequestException {
+        String token = token(exchange);
+        Session session = token == null ? null : sessions.get(token);
+        if (session != null && session.isExpired(System.nanoTime())) {
+            sessions.remove(token, session);
+            session = null;
+        }
+        if (session == null) {
+            throw new RequestException(401, "NOT_LOGGED_IN");
+        }
+        if (!session.role.equals(role)) {
+            throw new RequestException(403, "FORBIDDEN");
+        }
+        return session;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+
+    private static void requireMethod(String method, String expected) throws RequestException {
+        if (!method.equals(expected)) {
+            throw new RequestException(405, "METHOD_NOT_ALLOWED");
+        }
+    }
+
+    private static String required(Map<String, String> body, String field) throws RequestException {
+        String value = body.get(field);
+        if (value == null || value.isEmpty()) {
+            throw new RequestException(400, "MISSING_" + field.toUpperCase());
+        }
+        return value;
+    }
+
+    private static long amount(String text) throws RequestException {
+        try {
+            return Money.parse(text);
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, OperationResult.INVALID_AMOUNT.name());
+        }
+    }
+
+    // Effects: Reads the request body as a flat JSON object of strings, numbers, booleans and
+    //          nulls, and returns its fields as text; an empty body is an empty object.
+    private static Map<String, String> parse(HttpExchange exchange) throws IOException, RequestException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                if (bytes.size() + n > MAX_BODY_BYTES) {
+                    throw new RequestException(413, "BODY_TOO_LARGE");
+                }
+                bytes.write(buffer, 0, n);
+            }
+        }
+        String text = bytes.toString(StandardCharsets.UTF_8).trim();
+        Map<String, String> fields = new HashMap<>();
+        if (text.isEmpty()) {
+            return fields;
+        }
+        int[] position = {0};
+        expect(text, position, '{');
+        if (peek(text, position) == '}') {
+            position[0]++;
+        } else {
+            do {
+                String name = string(text, position);
+                expect(text, position, ':');
+                fields.put(name, value(text, position));
+            } while (next(text, position) == ',');
+            if (text.charAt(position[0] - 1) != '}') {
+                throw new RequestException(400, "MALFORMED_JSON");
+            }
+        }
+        if (peek(text, position) != 0) {
+            throw new RequestException(400, "MALFORMED_JSON");
+        }
+        return fields;
+    }
+
+    // Effects: Returns the next non-space character, or 0 at the end, without consuming it.
+    private static char peek(String text, int[] position) {
+        while (position[0] < text.length() && Character.isWhitespace(text.charAt(position[0]))) {
+            position[0]++;
+        }
+        return position[0] < text.length() ? text.charAt(position[0]) : 0;
+    }
+
+    private static char next(String text, int[] position) throws RequestException {
+        char c = peek(text, position);
+        if (c == 0) {
+            throw new RequestException(400, "MALFORMED_JSON");
+        }
+        position[0]++;
+        return c;
+    }
+
+    private static void expect(String text, int[] position, char expected) throws RequestException {
+        if (next(text, position) != expected) {
+            throw new RequestException(400, "MALFORMED_JSON");
+        }
+    }
+
+    private static String value(String text, int[] position) throws RequestException {
+        if (peek(text, position) == '"') {
+            return string(text, position);
+        }
+        int start = position[0];
+        while (position[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(position[0])) < 0) {
+            position[0]++;
+        }
+        String literal = text.substring(start, position[0]);
+        if (literal.isEmpty() || literal.charAt(0) == '{' || literal.charAt(0) == '[') {
+            throw new RequestException(400, "MALFORMED_JSON");
+        }
+        return literal.equals("null") ? null : literal;
+    }
+
+    private static String string(String text, int[] position) throws RequestException {
+        expect(text, position, '"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            if (position[0] >= text.length()) {
+                throw new RequestException(400, "MALFORMED_JSON");
+            }
+            char c = text.charAt(position[0]++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position[0] >= text.length()) {
+                throw new RequestException(400, "MALFORMED_JSON");
+            }
+            char escaped = text.charAt(position[0]++);
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (position[0] + 4 > text.length()) {
+                        throw new RequestException(400, "MALFORMED_JSON");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position[0], position[0] + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new RequestException(400, "MALFORMED_JSON");
+                    }
+                    position[0] += 4;
+                    break;
+                default:
+                    value.append(escaped);
+                    break;
+            }
+        }
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String error(String code) {
+        return "{\"error\":\"" + code + "\"}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("bankaccount.httpPort", DEFAULT_PORT);
+        String host = System.getProperty("bankaccount.httpHost");
+        InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+        AccountServer server = new AccountServer(AccountEngine.getInstance(), new InetSocketAddress(address, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            AccountEngine.shutdown();
+        }, "account-http-shutdown"));
+        server.start();
+        System.out.println("Serving accounts on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/");
+    }
+}
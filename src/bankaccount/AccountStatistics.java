@@ -0,0 +1,68 @@
+package bankaccount;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of the customer accounts in each tier, kept up to date by the
+ * {@link AccountEngine} on every change, so that a live report is read without scanning the
+ * accounts.
+ *
+ * Totals are updated without locking; each total is exact once the changes in progress have
+ * completed, but totals read while changes are in progress may not agree with each other.
+ *
+ * This class is thread-safe.
+ */
+final class AccountStatistics {
+    private final LongAdder[] customers;
+    private final LongAdder[] balances;
+
+    AccountStatistics(int tiers) {
+        customers = new LongAdder[tiers];
+        balances = new LongAdder[tiers];
+        for (int i = 0; i < tiers; i++) {
+            customers[i] = new LongAdder();
+            balances[i] = new LongAdder();
+        }
+    }
+
+    // Modifies: this
+    void add(int tier, long balance) {
+        customers[tier].increment();
+        balances[tier].add(balance);
+    }
+
+    // Modifies: this
+    void remove(int tier, long balance) {
+        customers[tier].decrement();
+        balances[tier].add(-balance);
+    }
+
+    // Effects: Records that a customer's balance changed, moving it between tiers if needed.
+    // Modifies: this
+    void move(int fromTier, long fromBalance, int toTier, long toBalance) {
+        if (fromTier == toTier) {
+            balances[toTier].add(toBalance - fromBalance);
+        } else {
+            remove(fromTier, fromBalance);
+            add(toTier, toBalance);
+        }
+    }
+
+    // Effects: Adds the totals of other to this and returns this.
+    // Modifies: this
+    AccountStatistics merge(AccountStatistics other) {
+        for (int i = 0; i < customers.length; i++) {
+            customers[i].add(other.customers[i].sum());
+            balances[i].add(other.balances[i].sum());
+        }
+        return this;
+    }
+
+    long customers(int tier) {
+        return customers[tier].sum();
+    }
+
+    long balance(int tier) {
+        return balances[tier].sum();
+    }
+}
@@ -0,0 +1,266 @@
+package bankaccount;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Persistent storage for customer accounts used by the {@link AccountEngine}.
+ * 
+ * Implementations must be safe to call from several threads at once for different
+ * usernames. The engine never issues concurrent calls for the same username, except that
+ * {@link #checkPassword(String, String)} may run alongside other calls for it.
+ */
+public interface AccountStore extends Closeable {
+
+    /**
+     * A stored account as passed to {@link AccountStore#reduce}. A record may be reused for the
+     * next account once the call it was passed to returns.
+     */
+    interface Record {
+        String username();
+
+        boolean isCustomer();
+
+        long balance();
+    }
+
+    /**
+     * Loads an account.
+     * 
+     * @param username The username to look up.
+     * @return The stored account, or null if no such account exists.
+     * @throws IOException if the account could not be read.
+     */
+    Account load(String username) throws IOException;
+
+    /**
+     * Returns whether an account exists for the given username.
+     * 
+     * @param username The username to look up.
+     * @return True if the account exists.
+     */
+    boolean exists(String username);
+
+    /**
+     * Creates a new account.
+     * 
+     * @param account The account to store.
+     * @param password The password of the account holder.
+     * @throws IOException if the account could not be written.
+     */
+    default void create(Account account, String password) throws IOException {
+        createHashed(account, Credentials.create(password));
+    }
+
+    /**
+     * Creates a new account whose password has already been hashed, so that the slow hashing
+     * can be done before any lock is taken.
+     * 
+     * @param account The account to store.
+     * @param credential The hashed password of the account holder.
+     * @throws IOException if the account already exists or could not be written.
+     */
+    void createHashed(Account account, Credentials.Hashed credential) throws IOException;
+
+    /**
+     * Checks a password against the stored credentials of an account.
+     * 
+     * @param username The username of the account.
+     * @param password The password to check.
+     * @return True if the account exists and the password matches.
+     * @throws IOException if the credentials could not be read.
+     */
+    boolean checkPassword(String username, String password) throws IOException;
+
+    /**
+     * Adds many accounts in one batch. Accounts whose username already exists, in the store
+     * or earlier in the batch, are skipped. The passwords of the others are hashed in
+     * parallel, and the batch is then written by {@link #createAllHashed}.
+     * 
+     * @param accounts The accounts to add.
+     * @param passwords The password of each account.
+     * @return For each account, whether it was created.
+     * @throws IOException if the accounts could not be written.
+     */
+    default boolean[] createAll(List<Account> accounts, List<String> passwords) throws IOException {
+        Credentials.Hashed[] credentials = new Credentials.Hashed[accounts.size()];
+        IntStream.range(0, credentials.length).parallel().filter(i -> !exists(accounts.get(i).getUsername()))
+                .forEach(i -> credentials[i] = Credentials.create(passwords.get(i)));
+        return createAllHashed(accounts, Arrays.asList(credentials));
+    }
+
+    /**
+     * Adds many accounts whose passwords have already been hashed in one batch. Accounts
+     * whose username already exists, in the store or earlier in the batch, are skipped.
+     * Implementations may write the batch as a single transaction; this default creates the
+     * accounts one at a time.
+     * 
+     * @param accounts The accounts to add.
+     * @param credentials The hashed password of each account; null for an account that is
+     *        known to exist already.
+     * @return For each account, whether it was created.
+     * @throws IOException if the accounts could not be written.
+     */
+    default boolean[] createAllHashed(List<Account> accounts, List<Credentials.Hashed> credentials) throws IOException {
+        boolean[] created = new boolean[accounts.size()];
+        for (int i = 0; i < created.length; i++) {
+            if (credentials.get(i) != null && !exists(accounts.get(i).getUsername())) {
+                createHashed(accounts.get(i), credentials.get(i));
+                created[i] = true;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Deletes an account.
+     * 
+     * @param username The username of the account to delete.
+     * @return True if an account was deleted.
+     * @throws IOException if the account could not be deleted.
+     */
+    boolean delete(String username) throws IOException;
+
+    /**
+     * Deletes many accounts in one batch. This default deletes them one at a time.
+     * 
+     * @param usernames The usernames of the accounts to delete.
+     * @return For each username, whether an account was deleted.
+     * @throws IOException if the accounts could not be deleted.
+     */
+    default boolean[] deleteAll(List<String> usernames) throws IOException {
+        boolean[] deleted = new boolean[usernames.size()];
+        for (int i = 0; i < deleted.length; i++) {
+            deleted[i] = delete(usernames.get(i));
+        }
+        return deleted;
+    }
+
+    /**
+     * Persists a new balance for an existing account.
+     * 
+     * @param username The username of the account.
+     * @param balance The balance to store, in cents.
+     * @param tier The index of the account's tier in the engine's {@link TierTable}.
+     * @throws IOException if the balance could not be written.
+     */
+    void saveBalance(String username, long balance, int tier) throws IOException;
+
+    /**
+     * Passes the username of every account in the store to an action, e.g. to build an index
+     * of known usernames at startup.
+     * 
+     * @param action Receives each username.
+     * @throws IOException if the accounts could not be listed.
+     */
+    void forEachUsername(Consumer<String> action) throws IOException;
+
+    /**
+     * Folds every account in the store into a result, e.g. for reports. Implementations may
+     * split the accounts between threads, each folding its share into its own partial result,
+     * and then merge the partial results. This default loads the accounts one at a time on
+     * the calling thread.
+     *
+     * @param supplier Creates an empty partial result.
+     * @param accumulator Adds an account to a partial result.
+     * @param combiner Merges the second partial result into the first and returns it.
+     * @return The merged result.
+     * @throws IOException if the accounts could not be read.
+     */
+    default <R> R reduce(Supplier<R> supplier, BiConsumer<R, Record> accumulator, BinaryOperator<R> combiner)
+            throws IOException {
+        List<String> usernames = new ArrayList<>();
+        forEachUsername(usernames::add);
+        R result = supplier.get();
+        for (String username : usernames) {
+            Account account = load(username);
+            if (account != null) {
+                accumulator.accept(result, new Record() {
+                    @Override
+                    public String username() {
+                        return account.getUsername();
+                    }
+
+                    @Override
+                    public boolean isCustomer() {
+                        return "customer".equals(account.getRole());
+                    }
+
+                    @Override
+                    public long balance() {
+                        return account.getBalance();
+                    }
+                });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Imports every legacy {@code <username>.txt} customer file in a directory that is not
+     * already in this store. The text files are left in place.
+     *
+     * @param directory The directory holding the legacy files.
+     * @return The number of accounts imported.
+     * @throws IOException if the directory or a file could not be read.
+     */
+    default int importLegacyFiles(Path directory) throws IOException {
+        int imported = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.txt")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String username = fileName.substring(0, fileName.length() - ".txt".length());
+                List<String> lines = Files.readAllLines(file);
+                if (lines.size() < 4 || !lines.get(0).equals(username) || !lines.get(2).equals("customer")
+                        || exists(username)) {
+                    continue;
+                }
+                try {
+                    create(new Account(username, lines.get(2), parseLegacyBalance(lines.get(3))), lines.get(1));
+                    imported++;
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return imported;
+    }
+
+    // Effects: Returns the balance line of a legacy file in cents, accepting the double
+    //          notation (e.g. "1.0E7") written by the oldest versions.
+    // Throws: NumberFormatException if the line is not a number.
+    private static long parseLegacyBalance(String line) {
+        try {
+            return Money.parse(line);
+        } catch (NumberFormatException e) {
+            return Money.fromDouble(Double.parseDouble(line));
+        }
+    }
+
+    /**
+     * Forces every balance saved so far to durable storage.
+     * 
+     * @throws IOException if the store could not be flushed.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Forces one account, as created or last saved, to durable storage, together with whatever
+     * the store needs to find it again after a crash.
+     * 
+     * @param username The username of the account.
+     * @throws IOException if the account does not exist or could not be flushed.
+     */
+    void flush(String username) throws IOException;
+}
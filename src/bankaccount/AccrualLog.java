@@ -0,0 +1,107 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Records which chunks of each monthly accrual have been applied, so that an accrual
+ * interrupted by a crash resumes with the chunks it had not finished and never applies a
+ * chunk twice. Each period has a file {@code <period>.log} with one {@code chunk/chunks}
+ * line per finished chunk, forced to disk as each line is added; a torn last line is
+ * ignored. The file {@code start} holds the first period that may be accrued automatically.
+ *
+ * This class is thread-safe.
+ */
+final class AccrualLog {
+
+    private final Path directory;
+
+    AccrualLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    private Path file(String period) {
+        return directory.resolve(period + ".log");
+    }
+
+    // Effects: Returns the chunks of the period already applied.
+    // Throws: IOException if the file could not be read or was written for another chunk count.
+    synchronized BitSet completed(String period, int chunks) throws IOException {
+        BitSet done = new BitSet(chunks);
+        Path file = file(period);
+        if (!Files.exists(file)) {
+            return done;
+        }
+        String[] lines = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).split("\n", -1);
+        // The last element follows the last newline: empty, or a torn line.
+        for (String line : Arrays.copyOf(lines, lines.length - 1)) {
+            int slash = line.indexOf('/');
+            if (slash < 0) {
+                continue;
+            }
+            int chunk;
+            int count;
+            try {
+                chunk = Integer.parseInt(line.substring(0, slash));
+                count = Integer.parseInt(line.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (count != chunks) {
+                throw new IOException("Accrual " + period + " was started with " + count + " chunks, not " + chunks);
+            }
+            done.set(chunk);
+        }
+        return done;
+    }
+
+    // Effects: Returns the first period that may be accrued automatically, first recording
+    //          period durably as that period if none has been recorded yet.
+    // Modifies: the start file
+    // Throws: IOException if the start file could not be read or written, or is corrupt.
+    synchronized YearMonth firstPeriod(YearMonth period) throws IOException {
+        Path file = directory.resolve("start");
+        if (Files.exists(file)) {
+            try {
+                return YearMonth.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+            } catch (DateTimeParseException e) {
+                throw new IOException("Corrupt accrual start " + file, e);
+            }
+        }
+        Path temp = directory.resolve("start.tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer line = ByteBuffer.wrap((period + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        return period;
+    }
+
+    // Effects: Records durably that a chunk of the period has been applied.
+    // Modifies: the period's file
+    synchronized void markCompleted(String period, int chunk, int chunks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file(period), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer line = ByteBuffer.wrap((chunk + "/" + chunks + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package bankaccount;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outcome of a monthly accrual run by {@link AccountEngine#accrue}: how many accounts
+ * were credited interest or charged a maintenance fee, the totals of both, and how many of the
+ * period's chunks had already been applied by an earlier, interrupted run.
+ *
+ * This class is thread-safe.
+ */
+public final class AccrualReport {
+    private final String period;
+    private final int chunks;
+    private final int resumed;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder accounts = new LongAdder();
+    private final LongAdder interest = new LongAdder();
+    private final LongAdder fees = new LongAdder();
+    private volatile long elapsedNanos;
+
+    AccrualReport(String period, int chunks, int resumed) {
+        this.period = period;
+        this.chunks = chunks;
+        this.resumed = resumed;
+    }
+
+    // Modifies: this
+    void add(long credited, long charged) {
+        accounts.increment();
+        interest.add(credited);
+        fees.add(charged);
+    }
+
+    // Modifies: this
+    void chunkCompleted() {
+        completed.increment();
+    }
+
+    // Modifies: this
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Returns the number of chunks applied by earlier runs for the same period.
+     *
+     * @return The number of chunks skipped.
+     */
+    public int getResumed() {
+        return resumed;
+    }
+
+    /**
+     * Returns whether every chunk of the period has now been applied.
+     *
+     * @return True if the accrual of the period is finished.
+     */
+    public boolean isFinished() {
+        return resumed + completed.sum() == chunks;
+    }
+
+    public long getAccounts() {
+        return accounts.sum();
+    }
+
+    public long getInterest() {
+        return interest.sum();
+    }
+
+    public long getFees() {
+        return fees.sum();
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Accrual ").append(period).append(": ")
+                .append(String.format("%,d accounts, interest $", getAccounts()));
+        Money.appendTo(builder, getInterest()).append(", fees $");
+        Money.appendTo(builder, getFees());
+        builder.append(String.format(", %d of %d chunks", resumed + completed.sum(), chunks));
+        if (resumed > 0) {
+            builder.append(String.format(" (%d applied earlier)", resumed));
+        }
+        return builder.append(String.format(" in %.2f s", elapsedNanos / 1e9)).toString();
+    }
+}
@@ -0,0 +1,159 @@
+package bankaccount;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javafx.application.Platform;
+
+/**
+ * Runs account operations for the controllers on background threads, so that storage and
+ * journal I/O never blocks the JavaFX application thread, and hands each result back to the
+ * JavaFX application thread with {@link Platform#runLater(Runnable)}.
+ *
+ * Every operation has a key, e.g. the username and the action. While an operation is in flight,
+ * later submissions with the same key are coalesced: {@link #submit} drops them, so a burst of
+ * clicks on one button runs the action once, and {@link #submitLatest} runs the latest of them
+ * once more after the current run, so a burst of refreshes still ends with up-to-date data
+ * delivered to the latest caller.
+ *
+ * This class is thread-safe.
+ */
+public final class AsyncOperations {
+
+    private static final AsyncOperations INSTANCE = new AsyncOperations();
+
+    // Marks a key in flight with no rerun requested.
+    private static final Runnable NO_RERUN = () -> { };
+
+    // The value is the rerun requested for the key while it is in flight, or NO_RERUN.
+    private final Map<String, Runnable> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    private AsyncOperations() {
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "account-operation-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the operation layer shared by the user interface.
+     *
+     * @return The shared instance.
+     */
+    public static AsyncOperations getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs an operation in the background unless one with the same key is already in flight.
+     * A failure is only printed.
+     *
+     * @param key Identifies the operation for coalescing.
+     * @param operation The work to run off the JavaFX application thread.
+     * @param onResult Receives the result on the JavaFX application thread.
+     * @return True if the operation was started, false if it was dropped.
+     */
+    public <T> boolean submit(String key, Supplier<T> operation, Consumer<T> onResult) {
+        return submit(key, operation, onResult, null);
+    }
+
+    /**
+     * Runs an operation in the background unless one with the same key is already in flight.
+     *
+     * @param key Identifies the operation for coalescing.
+     * @param operation The work to run off the JavaFX application thread.
+     * @param onResult Receives the result on the JavaFX application thread.
+     * @param onFailure Receives the exception thrown by the operation, if any, on the JavaFX
+     *        application thread; null to only print it.
+     * @return True if the operation was started, false if it was dropped.
+     */
+    public <T> boolean submit(String key, Supplier<T> operation, Consumer<T> onResult,
+            Consumer<RuntimeException> onFailure) {
+        if (inFlight.putIfAbsent(key, NO_RERUN) != null) {
+            return false;
+        }
+        run(key, operation, onResult, onFailure);
+        return true;
+    }
+
+    /**
+     * Runs an operation in the background. If one with the same key is already in flight, it is
+     * run once more when that one completes, however many times it was submitted meanwhile,
+     * with the operation and callback of the latest submission. A failure is only printed.
+     *
+     * @param key Identifies the operation for coalescing.
+     * @param operation The work to run off the JavaFX application thread.
+     * @param onResult Receives each result on the JavaFX application thread.
+     */
+    public <T> void submitLatest(String key, Supplier<T> operation, Consumer<T> onResult) {
+        submitLatest(key, operation, onResult, null);
+    }
+
+    /**
+     * Runs an operation in the background. If one with the same key is already in flight, it is
+     * run once more when that one completes, however many times it was submitted meanwhile,
+     * with the operation and callbacks of the latest submission.
+     *
+     * @param key Identifies the operation for coalescing.
+     * @param operation The work to run off the JavaFX application thread.
+     * @param onResult Receives each result on the JavaFX application thread.
+     * @param onFailure Receives the exception thrown by a run, if any, on the JavaFX application
+     *        thread; null to only print it.
+     */
+    public <T> void submitLatest(String key, Supplier<T> operation, Consumer<T> onResult,
+            Consumer<RuntimeException> onFailure) {
+        Runnable rerun = () -> run(key, operation, onResult, onFailure);
+        if (inFlight.merge(key, NO_RERUN, (pending, absent) -> rerun) == NO_RERUN) {
+            run(key, operation, onResult, onFailure);
+        }
+    }
+
+    // Effects: Runs operation on the executor, then on the JavaFX application thread either
+    //          starts the rerun requested meanwhile or clears the key, and passes the result
+    //          to onResult or the failure to onFailure.
+    private <T> void run(String key, Supplier<T> operation, Consumer<T> onResult, Consumer<RuntimeException> onFailure) {
+        executor.execute(() -> {
+            T result = null;
+            RuntimeException failure = null;
+            try {
+                result = operation.get();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            T value = result;
+            RuntimeException error = failure;
+            Platform.runLater(() -> {
+                Runnable[] rerun = new Runnable[1];
+                inFlight.computeIfPresent(key, (k, pending) -> {
+                    rerun[0] = pending;
+                    return pending == NO_RERUN ? null : NO_RERUN;
+                });
+                if (rerun[0] != null && rerun[0] != NO_RERUN) {
+                    rerun[0].run();
+                }
+                if (error == null) {
+                    onResult.accept(value);
+                    return;
+                }
+                error.printStackTrace();
+                if (onFailure != null) {
+                    onFailure.accept(error);
+                }
+            });
+        });
+    }
+
+    /**
+     * Stops accepting operations. Operations already running are allowed to finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -1,28 +1,67 @@
 package bankaccount;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import javafx.application.Application;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 
 public class BankAccount extends Application {
-    
+
+    private long engineNanos;
+
+    @Override
+    public void init() {
+        // Runs on the launcher thread, so opening the account files does not delay the first frame.
+        long start = System.nanoTime();
+        AccountEngine.getInstance();
+        engineNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Shows the login screen, then parses the other screens once it is up and, if the
+     * {@code bankaccount.startupTimings} system property is {@code true}, prints how long each
+     * stage of the startup took.
+     */
     @Override
     public void start(Stage primaryStage) throws Exception {
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("login.fxml"));
-        Parent root = loader.load();
-        
-        LoginController loginController = loader.getController();
-        loginController.setStage(primaryStage);
-        
+        long start = System.nanoTime();
+        Screens screens = new Screens(primaryStage);
         primaryStage.setTitle("Bank Account Application");
-        primaryStage.setScene(new Scene(root, 600, 400));
-        primaryStage.show();
+        screens.showLogin();
+        long loginNanos = System.nanoTime() - start;
+        long shownMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        Platform.runLater(() -> {
+            long preloadStart = System.nanoTime();
+            screens.preload();
+            if (Boolean.getBoolean("bankaccount.startupTimings")) {
+                System.out.printf("Startup: engine %.1f ms, login screen %.1f ms, shown %,d ms after launch;"
+                        + " other screens %.1f ms%n", engineNanos / 1e6, loginNanos / 1e6, shownMillis,
+                        (System.nanoTime() - preloadStart) / 1e6);
+            }
+        });
+    }
+
+    @Override
+    public void stop() throws Exception {
+        AsyncOperations.getInstance().shutdown();
+        AccountEngine.shutdown();
     }
 
-    public static void main(String[] args) {
-        launch(args);
+    /**
+     * Starts the JavaFX application, or with {@code --server [port]} only the headless
+     * {@link AccountServer}.
+     *
+     * @param args The command line arguments.
+     * @throws IOException if the server could not be started.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            AccountServer.main(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            launch(args);
+        }
     }
     
 }
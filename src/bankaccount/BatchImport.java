@@ -0,0 +1,230 @@
+package bankaccount;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headless batch mode that applies a file of end-of-day transactions through the
+ * {@link AccountEngine}, using the same tier fee rules as the user interface.
+ *
+ * The input is CSV with one transaction per line: {@code username,type,amount}, where type is
+ * {@code deposit}, {@code withdraw} or {@code purchase} and amount is in dollars. Blank lines
+ * and lines starting with {@code #} are skipped. The file is streamed and partitioned by
+ * username across worker threads, so transactions on one account are applied in file order
+ * while different accounts are applied in parallel. Rejected records (insufficient funds,
+ * purchases under the minimum, unknown accounts, malformed lines) are written with their line
+ * number and reason to a rejects file, and a throughput summary is printed at the end.
+ * If a worker thread dies on an unexpected exception, reading stops, the other workers finish
+ * what they were given, and the failure is recorded in the report with the last line read;
+ * records that were not applied are neither counted nor rejected.
+ * Purchases are not subject to the engine's per-customer purchase rate limit.
+ *
+ * Usage: {@code java bankaccount.BatchImport <transactions.csv> [rejects.csv] [workers]}
+ *
+ * This must not run while the JavaFX application has the same data directory open.
+ */
+public class BatchImport {
+
+    private static final int CHUNK_SIZE = 256;
+    private static final int QUEUE_CHUNKS = 64;
+    private static final long OFFER_MILLIS = 100;
+    private static final List<Record> END = new ArrayList<>();
+
+    // A parsed line of the input file.
+    private static class Record {
+        final long line;
+        final String username;
+        final String type;
+        final long amount;
+
+        Record(long line, String username, String type, long amount) {
+            this.line = line;
+            this.username = username;
+            this.type = type;
+            this.amount = amount;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java bankaccount.BatchImport <transactions.csv> [rejects.csv] [workers]");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]);
+        Path rejects = args.length > 1 ? Paths.get(args[1]) : Paths.get(args[0] + ".rejected");
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 4;
+        OperationReport report;
+        try {
+            report = run(AccountEngine.getInstance(), input, rejects, workers);
+            System.out.print(report);
+            if (report.rejected() > 0) {
+                System.out.println("Rejected records written to " + rejects);
+            }
+        } finally {
+            AccountEngine.shutdown();
+        }
+        if (report.getFailure() != null) {
+            report.getFailure().printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Applies every transaction in a file.
+     *
+     * @param engine The engine to apply the transactions through.
+     * @param input The CSV file to read.
+     * @param rejects The file rejected records are written to.
+     * @param workers The number of worker threads.
+     * @return The outcome counts, with the failure of a worker thread if one died.
+     * @throws IOException if the input could not be read or the rejects could not be written.
+     * @throws InterruptedException if interrupted while waiting for the workers.
+     */
+    public static OperationReport run(AccountEngine engine, Path input, Path rejects, int workers)
+            throws IOException, InterruptedException {
+        OperationReport report = new OperationReport();
+        List<BlockingQueue<List<Record>>> queues = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(input);
+                BufferedWriter rejectWriter = Files.newBufferedWriter(rejects)) {
+            for (int i = 0; i < workers; i++) {
+                BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+                queues.add(queue);
+                Thread thread = new Thread(() -> work(engine, queue, report, rejectWriter), "batch-import-" + i);
+                thread.setUncaughtExceptionHandler((dead, e) -> failure.compareAndSet(null,
+                        new IllegalStateException("Worker " + dead.getName() + " stopped", e)));
+                threads.add(thread);
+                thread.start();
+            }
+
+            List<List<Record>> chunks = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                chunks.add(new ArrayList<>(CHUNK_SIZE));
+            }
+            String text;
+            long lineNumber = 0;
+            while (failure.get() == null && (text = reader.readLine()) != null) {
+                lineNumber++;
+                Record record = parse(lineNumber, text);
+                if (record == null) {
+                    if (!text.isBlank() && !text.startsWith("#")) {
+                        report.recordMalformed();
+                        reject(rejectWriter, lineNumber, "malformed", text);
+                    }
+                    continue;
+                }
+                int partition = Math.floorMod(record.username.hashCode(), workers);
+                List<Record> chunk = chunks.get(partition);
+                chunk.add(record);
+                if (chunk.size() == CHUNK_SIZE) {
+                    enqueue(queues.get(partition), threads.get(partition), chunk);
+                    chunks.set(partition, new ArrayList<>(CHUNK_SIZE));
+                }
+            }
+            for (int i = 0; i < workers; i++) {
+                if (failure.get() == null && !chunks.get(i).isEmpty()) {
+                    enqueue(queues.get(i), threads.get(i), chunks.get(i));
+                }
+                enqueue(queues.get(i), threads.get(i), END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (failure.get() != null) {
+                report.setFailure(failure.get(), lineNumber);
+            }
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    // Effects: Queues a chunk for a worker, waiting while its queue is full, and drops it if the
+    //          worker has died.
+    private static void enqueue(BlockingQueue<List<Record>> queue, Thread worker, List<Record> chunk)
+            throws InterruptedException {
+        while (!queue.offer(chunk, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (!worker.isAlive()) {
+                return;
+            }
+        }
+    }
+
+    // Effects: Returns the record on a line, or null if the line is blank, a comment or malformed.
+    private static Record parse(long lineNumber, String text) {
+        int first = text.indexOf(',');
+        int second = first < 0 ? -1 : text.indexOf(',', first + 1);
+        if (second < 0) {
+            return null;
+        }
+        String username = text.substring(0, first).trim();
+        String type = text.substring(first + 1, second).trim().toLowerCase();
+        if (username.isEmpty() || !(type.equals("deposit") || type.equals("withdraw") || type.equals("purchase"))) {
+            return null;
+        }
+        try {
+            return new Record(lineNumber, username, type, Money.parse(text.substring(second + 1).trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Effects: Applies every record queued for one partition until the end marker arrives.
+    private static void work(AccountEngine engine, BlockingQueue<List<Record>> queue, OperationReport report, BufferedWriter rejects) {
+        try {
+            while (true) {
+                List<Record> chunk = queue.take();
+                if (chunk == END) {
+                    return;
+                }
+                for (Record record : chunk) {
+                    OperationResult result;
+                    switch (record.type) {
+                        case "deposit":
+                            result = engine.deposit(record.username, record.amount);
+                            break;
+                        case "withdraw":
+                            result = engine.withdraw(record.username, record.amount);
+                            break;
+                        default:
+                            result = engine.purchaseUnlimited(record.username, record.amount);
+                            break;
+                    }
+                    report.record(result);
+                    if (result != OperationResult.SUCCESS) {
+                        reject(rejects, record.line, result.name().toLowerCase(),
+                                record.username + "," + record.type + "," + Money.format(record.amount));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reject(BufferedWriter rejects, long lineNumber, String reason, String text) {
+        synchronized (rejects) {
+            try {
+                rejects.write(lineNumber + "," + reason + "," + text);
+                rejects.newLine();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package bankaccount;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Probabilistic set of strings that answers "definitely absent" or "possibly present". The
+ * {@link AccountEngine} uses one over all usernames so that login attempts for unknown
+ * usernames are rejected without touching the store or hashing the password.
+ *
+ * Keys cannot be removed; a deleted username only costs a false positive. Lookups and inserts
+ * allocate nothing.
+ *
+ * This class is thread-safe.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long mask;
+    private final int hashes;
+
+    /**
+     * Creates an empty filter sized for a number of keys and a false-positive rate.
+     *
+     * @param expectedKeys The number of keys the filter should hold at that rate.
+     * @param falsePositiveRate The wanted probability that an absent key is reported present.
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        double bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long bits = Math.max(64, (long) Math.ceil(Math.max(1, expectedKeys) * bitsPerKey));
+        bits = Long.highestOneBit(bits - 1) << 1;
+        words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, bits >>> 6));
+        mask = ((long) words.length() << 6) - 1;
+        hashes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+    }
+
+    // Effects: Returns a 64-bit FNV-1a hash of key, finished with a bit mixer.
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key The key to add.
+     */
+    public void add(String key) {
+        long h = hash(key);
+        long h1 = h >>> 32;
+        long h2 = h | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) & mask;
+            int word = (int) (bit >>> 6);
+            long value = 1L << bit;
+            long current = words.get(word);
+            while ((current & value) == 0 && !words.compareAndSet(word, current, current | value)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a key may have been added.
+     *
+     * @param key The key to look up.
+     * @return False if the key was definitely never added.
+     */
+    public boolean mightContain(String key) {
+        long h = hash(key);
+        long h1 = h >>> 32;
+        long h2 = h | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) & mask;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
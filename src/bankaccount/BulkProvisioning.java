@@ -0,0 +1,169 @@
+package bankaccount;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk onboarding and offboarding of customers for the manager role, usable headless or from
+ * the manager interface.
+ *
+ * A provisioning file is CSV with one customer per line: {@code username,password[,balance]},
+ * where the opening balance is in dollars and defaults to $100 as for a single new customer.
+ * All customers in the file are created through {@link AccountEngine#createAccounts} as one
+ * transaction, with usernames that already exist (or repeat within the file) rejected by the
+ * store's index. A deprovisioning file holds one username per line, deleted through
+ * {@link AccountEngine#deleteAccounts} as one batch. Blank lines and lines starting with
+ * {@code #} are skipped, rejected lines are written with their line number and reason to a
+ * rejects file, and the throughput is reported at the end.
+ *
+ * Usage: {@code java bankaccount.BulkProvisioning create|delete <file.csv> [rejects.csv]}
+ *
+ * This must not run while the JavaFX application has the same data directory open.
+ */
+public class BulkProvisioning {
+
+    public static final long DEFAULT_OPENING_BALANCE = Money.of(100);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("create") || args[0].equals("delete"))) {
+            System.err.println("Usage: java bankaccount.BulkProvisioning create|delete <file.csv> [rejects.csv]");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[1]);
+        Path rejects = args.length > 2 ? Paths.get(args[2]) : Paths.get(args[1] + ".rejected");
+        try {
+            AccountEngine engine = AccountEngine.getInstance();
+            OperationReport report = args[0].equals("create") ? provision(engine, input, rejects)
+                    : deprovision(engine, input, rejects);
+            System.out.print(report);
+            if (report.rejected() > 0) {
+                System.out.println("Rejected records written to " + rejects);
+            }
+        } finally {
+            AccountEngine.shutdown();
+        }
+    }
+
+    /**
+     * Creates every customer listed in a provisioning file as one transaction.
+     *
+     * @param engine The engine to create the customers through.
+     * @param input The CSV file of {@code username,password[,balance]} lines.
+     * @param rejects The file rejected lines are written to.
+     * @return The outcome counts and throughput.
+     * @throws IOException if the input could not be read or the rejects could not be written.
+     */
+    public static OperationReport provision(AccountEngine engine, Path input, Path rejects) throws IOException {
+        OperationReport report = new OperationReport();
+        long start = System.nanoTime();
+        List<Long> lineNumbers = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        List<String> passwords = new ArrayList<>();
+        List<Long> balances = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(input);
+                BufferedWriter rejectWriter = Files.newBufferedWriter(rejects)) {
+            String text;
+            long lineNumber = 0;
+            while ((text = reader.readLine()) != null) {
+                lineNumber++;
+                if (text.isBlank() || text.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = text.split(",", -1);
+                long balance;
+                try {
+                    balance = fields.length > 2 ? Money.parse(fields[2].trim()) : DEFAULT_OPENING_BALANCE;
+                } catch (NumberFormatException e) {
+                    balance = -1;
+                }
+                if (fields.length < 2 || fields.length > 3 || !isValidUsername(fields[0].trim())
+                        || fields[1].trim().isEmpty() || balance < 0) {
+                    report.recordMalformed();
+                    reject(rejectWriter, lineNumber, "malformed", text);
+                    continue;
+                }
+                lineNumbers.add(lineNumber);
+                usernames.add(fields[0].trim());
+                passwords.add(fields[1].trim());
+                balances.add(balance);
+            }
+
+            long[] openingBalances = new long[balances.size()];
+            for (int i = 0; i < openingBalances.length; i++) {
+                openingBalances[i] = balances.get(i);
+            }
+            OperationResult[] results = engine.createAccounts(usernames, passwords, openingBalances);
+            for (int i = 0; i < results.length; i++) {
+                report.record(results[i]);
+                if (results[i] != OperationResult.SUCCESS) {
+                    reject(rejectWriter, lineNumbers.get(i), results[i].name().toLowerCase(), usernames.get(i));
+                }
+            }
+        }
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Deletes every customer listed in a deprovisioning file as one batch.
+     *
+     * @param engine The engine to delete the customers through.
+     * @param input The file with one username per line.
+     * @param rejects The file rejected lines are written to.
+     * @return The outcome counts and throughput.
+     * @throws IOException if the input could not be read or the rejects could not be written.
+     */
+    public static OperationReport deprovision(AccountEngine engine, Path input, Path rejects) throws IOException {
+        OperationReport report = new OperationReport();
+        long start = System.nanoTime();
+        List<Long> lineNumbers = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(input);
+                BufferedWriter rejectWriter = Files.newBufferedWriter(rejects)) {
+            String text;
+            long lineNumber = 0;
+            while ((text = reader.readLine()) != null) {
+                lineNumber++;
+                if (text.isBlank() || text.startsWith("#")) {
+                    continue;
+                }
+                int comma = text.indexOf(',');
+                String username = (comma < 0 ? text : text.substring(0, comma)).trim();
+                if (!isValidUsername(username)) {
+                    report.recordMalformed();
+                    reject(rejectWriter, lineNumber, "malformed", text);
+                    continue;
+                }
+                lineNumbers.add(lineNumber);
+                usernames.add(username);
+            }
+
+            OperationResult[] results = engine.deleteAccounts(usernames);
+            for (int i = 0; i < results.length; i++) {
+                report.record(results[i]);
+                if (results[i] != OperationResult.SUCCESS) {
+                    reject(rejectWriter, lineNumbers.get(i), results[i].name().toLowerCase(), usernames.get(i));
+                }
+            }
+        }
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    // Effects: Returns whether username is non-empty and short enough for every account store.
+    private static boolean isValidUsername(String username) {
+        return !username.isEmpty() && username.getBytes(StandardCharsets.UTF_8).length <= MappedAccountStore.MAX_NAME_LENGTH;
+    }
+
+    private static void reject(BufferedWriter rejects, long lineNumber, String reason, String text) throws IOException {
+        rejects.write(lineNumber + "," + reason + "," + text);
+        rejects.newLine();
+    }
+}
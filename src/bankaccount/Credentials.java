@@ -0,0 +1,115 @@
+package bankaccount;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted hashing of customer passwords for storage, using PBKDF2 with HMAC-SHA256.
+ *
+ * The iteration count is stored with every credential, so it can be raised with the
+ * {@code bankaccount.passwordIterations} system property without invalidating existing
+ * passwords. An iteration count of zero marks an unsalted SHA-256 hash written by earlier
+ * versions, which is still accepted so that it can be upgraded at the next login.
+ */
+public final class Credentials {
+
+    public static final int SALT_LENGTH = 16;
+    public static final int HASH_LENGTH = 32;
+    public static final int ITERATIONS = Integer.getInteger("bankaccount.passwordIterations", 100_000);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * A stored credential: the salt, the iteration count and the resulting hash.
+     *
+     * This class is immutable.
+     */
+    public static final class Hashed {
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        public Hashed(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt.clone();
+            this.hash = hash.clone();
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public byte[] getSalt() {
+            return salt.clone();
+        }
+
+        public byte[] getHash() {
+            return hash.clone();
+        }
+
+        /**
+         * Returns whether a password produces this credential, in time independent of where the
+         * hashes differ.
+         *
+         * @param password The password to check.
+         * @return True if the password matches.
+         */
+        public boolean matches(String password) {
+            return MessageDigest.isEqual(hash, derive(password, salt, iterations));
+        }
+
+        /**
+         * Returns whether this credential is weaker than new ones, i.e. it should be rehashed
+         * once the password is known.
+         *
+         * @return True if the credential is unsalted or uses fewer iterations than new ones.
+         */
+        public boolean isOutdated() {
+            return iterations < ITERATIONS;
+        }
+    }
+
+    private Credentials() {
+    }
+
+    /**
+     * Hashes a password with a fresh random salt and the current iteration count. This is
+     * deliberately slow and should not be called on the JavaFX application thread.
+     *
+     * @param password The password to hash.
+     * @return The credential to store.
+     */
+    public static Hashed create(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return new Hashed(ITERATIONS, salt, derive(password, salt, ITERATIONS));
+    }
+
+    // Effects: Returns the HASH_LENGTH-byte hash of password, or the unsalted SHA-256 hash if
+    //          iterations is zero.
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        if (iterations == 0) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+        char[] characters = password.toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(characters, salt, iterations, HASH_LENGTH * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(characters, '\0');
+        }
+    }
+}
@@ -1,29 +1,29 @@
 package bankaccount;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.List;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.function.Consumer;
 
+import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 /**
  * Manages the customer's account functionalities including deposit, withdrawal, balance management,
- * and online purchases.
+ * and online purchases. The balance logic itself lives in the {@link AccountEngine}.
  * 
  * This class is mutable.
  */
 public class CustomerController {
 
     private String username;
-    private double balance;
+    private long balance;
     private String level;
     
     @FXML
@@ -38,22 +38,53 @@ public class CustomerController {
     private Label insufficientFundsLabel;
     @FXML
     private TextField purchaseAmountField;
+    @FXML
+    private TextField transferRecipientField;
+    @FXML
+    private TextField transferAmountField;
+    @FXML
+    private ListView<TransactionHistory.Entry> historyListView;
+
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
 
     private Stage stage;
+    private Screens screens;
     
     private CustomerState currentState;
 
+    // Counts the sessions this controller has been bound to; results of operations submitted
+    // in an earlier session are discarded.
+    private int session;
+
+    // Identifies the purchase being made until it has a final outcome, so that retrying it
+    // after a lost response cannot charge the customer twice.
+    private String purchaseKey;
+
+    private final AccountEngine engine = AccountEngine.getInstance();
+    private final AsyncOperations operations = AsyncOperations.getInstance();
+
     
     /**
      * Returns the current balance of the customer's account.
      * 
-     * @return The current balance.
+     * @return The current balance, in cents.
      */
     // Effects: Returns the current balance of the customer's account.
-    public double getBalance() {
+    public long getBalance() {
         return balance;
     }
 
+    /**
+     * Returns the username of the logged in customer.
+     * 
+     * @return The username.
+     */
+    // Effects: Returns the username of the logged in customer.
+    public String getUsername() {
+        return username;
+    }
+
     /**
      * Returns the label used to display insufficient funds messages.
      * 
@@ -64,6 +95,20 @@ public class CustomerController {
         return insufficientFundsLabel;
     }
     
+    /**
+     * Returns the idempotency key of the purchase being made, choosing a new one if the last
+     * purchase has a final outcome.
+     * 
+     * @return The idempotency key.
+     */
+    // Modifies: purchaseKey
+    public String getPurchaseKey() {
+        if (purchaseKey == null) {
+            purchaseKey = UUID.randomUUID().toString();
+        }
+        return purchaseKey;
+    }
+
     /**
      * Returns the text field for entering purchase amounts.
      * 
@@ -74,18 +119,6 @@ public class CustomerController {
         return purchaseAmountField;
     }
     
-    /**
-     * Sets the balance of the customer's account.
-     * 
-     * @param newBalance The new balance to be set.
-     */
-    // Effects: Sets the balance of the customer's account to the specified new balance.
-    // Modifies: balance
-    public void setBalance(double newBalance) {
-        this.balance = newBalance;
-        updateBalanceLabel(); // Update the balance label after setting the new balance
-    }
-    
     /**
      * Sets the stage for this controller.
      * 
@@ -97,33 +130,78 @@ public class CustomerController {
         this.stage = stage;
     }
 
+    public void setScreens(Screens screens) {
+        this.screens = screens;
+    }
+
     
     private void setCurrentState() {
         // Effects: Sets the current state of the customer based on their balance.
         // Modifies: currentState
-        if (balance >= 20000) {
-            currentState = new PlatinumState();
-        } else if (balance >= 10000) {
-            currentState = new GoldState();
-        } else {
-            currentState = new SilverState();
-        }
-        currentState.setContext(this); // Set the context of the current state to this CustomerController
+        currentState = engine.getTiers().stateFor(balance);
     }
     
     /**
-     * Initializes the customer controller with the given username.
+     * Sets up the parts of the screen that do not depend on the customer, once, when the
+     * screen is parsed.
+     */
+    @FXML
+    private void initialize() {
+        historyListView.setCellFactory(view -> new ListCell<>() {
+            @Override
+            protected void updateItem(TransactionHistory.Entry entry, boolean empty) {
+                super.updateItem(entry, empty);
+                setText(empty ? null : entry == null ? "Loading..." : describe(entry));
+            }
+        });
+    }
+
+    /**
+     * Binds the controller to a customer who has just logged in, clearing anything left from
+     * the previous session. The balance is loaded in the background and shown once it
+     * arrives.
      * 
      * @param username The username of the customer.
      */
-    // Effects: Initializes the customer controller with the given username.
-    // Modifies: this.username, balance, level, currentState
-    public void initialize(String username) {
+    // Effects: Binds the controller to the given username.
+    // Modifies: this.username, session, balance, level, currentState, purchaseKey, the fields
+    public void startSession(String username) {
+        endSession();
         this.username = username;
-        loadBalance();
-        updateLevel();
         updateBalanceLabel();
-        setCurrentState();
+        updateLevel();
+        loadBalance();
+        loadHistory();
+    }
+
+    /**
+     * Unbinds the controller from the customer and clears the screen, so that nothing of the
+     * session is shown to the next customer, including results still in flight.
+     */
+    // Modifies: username, session, balance, purchaseKey, the fields
+    public void endSession() {
+        session++;
+        username = null;
+        balance = 0;
+        purchaseKey = null;
+        depositAmountField.clear();
+        withdrawAmountField.clear();
+        purchaseAmountField.clear();
+        transferRecipientField.clear();
+        transferAmountField.clear();
+        insufficientFundsLabel.setText("");
+        historyListView.setItems(FXCollections.observableArrayList());
+    }
+
+    // Effects: Returns a callback that passes results to onResult only while the session that
+    //          submitted the operation is still bound.
+    <T> Consumer<T> forSession(Consumer<T> onResult) {
+        int submitted = session;
+        return value -> {
+            if (session == submitted) {
+                onResult.accept(value);
+            }
+        };
     }
 
     /**
@@ -131,7 +209,7 @@ public class CustomerController {
      */
     // Effects: Updates the balance label to display the current balance.
     public void updateBalanceLabel() {
-        balanceLabel.setText("Balance: $" + balance);
+        balanceLabel.setText(Money.appendTo(new StringBuilder("Balance: $"), balance).toString());
     }
 
     /**
@@ -140,167 +218,271 @@ public class CustomerController {
     // Effects: Updates the level label to display the current level based on the balance.
     // Modifies: level, currentState, levelLabel
     public void updateLevel() {
-        if (balance >= 20000) {
-            level = "Platinum";
-            currentState = new PlatinumState();
-            currentState.setContext(this);
-        } else if (balance >= 10000) {
-            level = "Gold";
-            currentState = new GoldState(); 
-            currentState.setContext(this);
-        } else {
-            level = "Silver";
-            currentState = new SilverState();
-            currentState.setContext(this);
-        }
+        setCurrentState();
+        level = currentState.getLevel();
         levelLabel.setText("Level: " + level);
     }
 
+    /**
+     * Reloads the balance from the engine in the background and then refreshes the balance
+     * and level labels.
+     */
+    // Effects: Reloads the balance from the engine and refreshes the labels.
+    // Modifies: balance, level, currentState, balanceLabel, levelLabel
+    public void refresh() {
+        loadBalance();
+        loadHistory();
+    }
+
+    /**
+     * Reloads the newest page of the transaction history in the background and shows the
+     * history from it; older pages are read as they are scrolled to.
+     */
+    // Effects: Replaces the items of the history list with the current history.
+    // Modifies: historyListView
+    private void loadHistory() {
+        String username = this.username;
+        operations.submitLatest(username + ":history",
+                () -> engine.history(username, TransactionHistory.NEWEST, TransactionHistoryList.PAGE_SIZE),
+                forSession(page -> historyListView.setItems(new TransactionHistoryList(engine, username, page))));
+    }
+
+    // Effects: Returns a line of the transaction history.
+    private static String describe(TransactionHistory.Entry entry) {
+        String type = entry.getType().name();
+        StringBuilder text = new StringBuilder(HISTORY_TIME.format(Instant.ofEpochMilli(entry.getTimestamp())))
+                .append("  ").append(type.charAt(0)).append(type.substring(1).toLowerCase().replace('_', ' ')).append("  $");
+        Money.appendTo(text, entry.getAmount()).append("  Balance: $");
+        return Money.appendTo(text, entry.getBalanceAfter()).toString();
+    }
+
+    // Effects: Shows a balance loaded from the engine.
+    // Modifies: balance, level, currentState, balanceLabel, levelLabel
+    private void showBalance(long loaded) {
+        balance = loaded;
+        updateBalanceLabel();
+        updateLevel();
+    }
+
     /**
      * Deposits the specified amount into the customer's account.
      * 
-     * @throws NumberFormatException if the entered amount is not a valid number.
      * @throws NullPointerException if the deposit amount field is null.
      */
     public void deposit() {
         // Effects: Increases the account balance by the deposited amount.
         // Modifies: balance, balanceLabel, levelLabel, depositAmountField, insufficientFundsLabel
         // Requires: The deposit amount field must not be null.
-        //           The entered amount must be a valid number, can not be negative.
         String amountText = depositAmountField.getText().trim();
         if (!amountText.isEmpty()) {
-            double amount = Double.parseDouble(amountText);
-            if (amount >0){
-                balance += amount;
-                updateBalanceLabel();
-                updateLevel();
-                saveBalanceToFile(amount);
+            long amount;
+            try {
+                amount = Money.parse(amountText);
+            } catch (NumberFormatException e) {
+                showDepositResult(OperationResult.INVALID_AMOUNT);
+                return;
+            }
+            String username = this.username;
+            operations.submit(username + ":deposit", () -> engine.deposit(username, amount),
+                    forSession(this::showDepositResult));
+        }
+    }
+
+    // Effects: Refreshes the labels after a successful deposit, or shows why it was rejected.
+    // Modifies: depositAmountField, insufficientFundsLabel
+    private void showDepositResult(OperationResult result) {
+        switch (result) {
+            case SUCCESS:
+                refresh();
                 depositAmountField.clear();
                 insufficientFundsLabel.setText("Deposit Succesful.");
-            }else{
-                insufficientFundsLabel.setText("You can not deposit a negative amount");
-            }    
+                break;
+            case INVALID_AMOUNT:
+                insufficientFundsLabel.setText("Please enter a positive dollar amount to deposit.");
+                break;
+            default:
+                insufficientFundsLabel.setText("Deposit failed.");
+                break;
         }
     }
 
     /**
      * Withdraws the specified amount from the customer's account.
      * 
-     * @throws NumberFormatException if the entered amount is not a valid number.
      * @throws NullPointerException if the withdraw amount field is null.
      */
     public void withdraw() {
         // Effects: Decreases the account balance by the withdrawn amount.
         // Modifies: balance, balanceLabel, levelLabel, withdrawAmountField, insufficientFundsLabel
         // Requires: The withdraw amount field must not be null.
-        //           The entered amount must be a valid number, can not be negative.
         String amountText = withdrawAmountField.getText().trim();
         if (!amountText.isEmpty()) {
-            double amount = Double.parseDouble(amountText);
-            if (amount >0){
-                
-                if (balance >= amount) {
-                    balance -= amount;
-                    updateBalanceLabel();
-                    updateLevel();
-                    saveBalanceToFile(-amount);
-                    withdrawAmountField.clear();
-                    insufficientFundsLabel.setText("");
-                } else {
-                    insufficientFundsLabel.setText("Insufficient Funds");
-                }
-            }else{
-                insufficientFundsLabel.setText("You can not withdraw a negative amount");
+            long amount;
+            try {
+                amount = Money.parse(amountText);
+            } catch (NumberFormatException e) {
+                showWithdrawResult(OperationResult.INVALID_AMOUNT);
+                return;
             }
+            String username = this.username;
+            operations.submit(username + ":withdraw", () -> engine.withdraw(username, amount),
+                    forSession(this::showWithdrawResult));
+        }
+    }
+
+    // Effects: Refreshes the labels after a successful withdrawal, or shows why it was rejected.
+    // Modifies: withdrawAmountField, insufficientFundsLabel
+    private void showWithdrawResult(OperationResult result) {
+        switch (result) {
+            case SUCCESS:
+                refresh();
+                withdrawAmountField.clear();
+                insufficientFundsLabel.setText("");
+                break;
+            case INSUFFICIENT_FUNDS:
+                insufficientFundsLabel.setText("Insufficient Funds");
+                break;
+            case INVALID_AMOUNT:
+                insufficientFundsLabel.setText("Please enter a positive dollar amount to withdraw.");
+                break;
+            default:
+                insufficientFundsLabel.setText("Withdrawal failed.");
+                break;
         }
     }
 
     /**
-     * Loads the customer's balance from the file.
-     * 
-     * @throws IOException if an I/O error occurs while reading the balance file.
-     * @throws NumberFormatException if the balance file contains invalid numeric data.
+     * Transfers the specified amount from the customer's account to another customer.
      */
-    private void loadBalance() {
-        // Effects: Loads the customer's balance from the file and updates the balance label.
-        // Modifies: balance, balanceLabel
-        // Requires: The username must be valid and correspond to an existing balance file.
-        File file = new File(username + ".txt");
-        if (file.exists()) {
+    public void transfer() {
+        // Effects: Moves the entered amount from this customer's balance to the recipient's.
+        // Modifies: balance, balanceLabel, levelLabel, transferAmountField, insufficientFundsLabel
+        String recipient = transferRecipientField.getText().trim();
+        String amountText = transferAmountField.getText().trim();
+        if (!recipient.isEmpty() && !amountText.isEmpty()) {
+            long amount;
             try {
-                List<String> lines = Files.readAllLines(Paths.get(username + ".txt"));
-                balance = Double.parseDouble(lines.get(3));
-                updateBalanceLabel();
-            } catch (IOException | NumberFormatException e) {
-                e.printStackTrace();
+                amount = Money.parse(amountText);
+            } catch (NumberFormatException e) {
+                showTransferResult(recipient, OperationResult.INVALID_AMOUNT);
+                return;
             }
+            String username = this.username;
+            operations.submit(username + ":transfer", () -> engine.transfer(username, recipient, amount),
+                    forSession(result -> showTransferResult(recipient, result)));
+        }
+    }
+
+    // Effects: Refreshes the labels after a successful transfer, or shows why it was rejected.
+    // Modifies: transferRecipientField, transferAmountField, insufficientFundsLabel
+    private void showTransferResult(String recipient, OperationResult result) {
+        switch (result) {
+            case SUCCESS:
+                refresh();
+                transferRecipientField.clear();
+                transferAmountField.clear();
+                insufficientFundsLabel.setText("Transferred to " + recipient + ".");
+                break;
+            case INSUFFICIENT_FUNDS:
+                insufficientFundsLabel.setText("Insufficient Funds");
+                break;
+            case INVALID_AMOUNT:
+                insufficientFundsLabel.setText("Please enter a positive dollar amount to transfer.");
+                break;
+            case SAME_ACCOUNT:
+                insufficientFundsLabel.setText("You can not transfer to yourself");
+                break;
+            case UNKNOWN_ACCOUNT:
+                insufficientFundsLabel.setText("No customer named " + recipient);
+                break;
+            default:
+                insufficientFundsLabel.setText("Transfer failed.");
+                break;
         }
     }
 
     /**
-     * Saves the customer's balance to the file.
-     * 
-     * @param amount The amount to be saved in the file.
-     * @throws IOException if an I/O error occurs while writing to the balance file.
-     * @throws NumberFormatException if the balance file contains invalid numeric data.
+     * Loads the customer's balance from the account engine in the background. If the account
+     * has been deleted, e.g. by a manager, the last balance shown is kept.
      */
-    private void saveBalanceToFile(double amount) {
-        // Effects: Saves the customer's balance to the file after adjusting it by the specified amount.
-        // Modifies: balance file content
-        // Requires: The username must be valid and correspond to an existing balance file.
-        try {
-            File file = new File(username + ".txt");
-            if (file.exists()) {
-                List<String> lines = Files.readAllLines(Paths.get(username + ".txt"));
-                double currentBalance = Double.parseDouble(lines.get(3));
-                currentBalance += amount;
-                lines.set(3, String.valueOf(currentBalance));
-                Files.write(Paths.get(username + ".txt"), lines);
-            } else {
-                // Handle file not found or create new file
-            }
-        } catch (IOException | NumberFormatException e) {
-            e.printStackTrace();
-        }
+    private void loadBalance() {
+        // Effects: Loads the customer's balance from the engine and updates the labels, or
+        //          says so if it could not be loaded.
+        // Modifies: balance, balanceLabel, levelLabel, insufficientFundsLabel
+        String username = this.username;
+        long balance = this.balance;
+        operations.submitLatest(username + ":balance",
+                () -> engine.exists(username) ? engine.balance(username) : balance, forSession(this::showBalance),
+                forSession(failure -> insufficientFundsLabel.setText("Your balance could not be loaded.")));
     }
 
     /**
      * Initiates an online purchase for the customer.
      * 
-     * @throws NumberFormatException if the entered purchase amount is not a valid number.
      * @throws NullPointerException if the purchase amount field is null.
      */
     public void purchaseOnline() {
         // Effects: Initiates an online purchase and adjusts the balance accordingly.
         // Modifies: balance, balanceLabel, levelLabel, purchaseAmountField, insufficientFundsLabel
         // Requires: The purchase amount field must not be null.
-        //           The entered amount must be a valid number.
         String amountText = purchaseAmountField.getText().trim();
         if(!amountText.isEmpty()){
-            double purchaseAmount = Double.parseDouble(amountText);
-            currentState.purchaseOnline(purchaseAmount);
+            long purchaseAmount;
+            try {
+                purchaseAmount = Money.parse(amountText);
+            } catch (NumberFormatException e) {
+                showPurchaseResult(OperationResult.INVALID_AMOUNT);
+                return;
+            }
+            currentState.purchaseOnline(this, purchaseAmount);
         }       
     }
 
     /**
-     * Logs out the customer by navigating to the login screen.
+     * Shows the outcome of an online purchase made by the current tier state.
      * 
-     * @throws IOException if an I/O error occurs while loading the login screen.
+     * @param result The result returned by the engine.
+     */
+    // Effects: Refreshes the labels after a successful purchase, or shows why it was rejected.
+    //          Keeps the idempotency key only while the purchase is still in flight under it;
+    //          every other outcome is final, and the next purchase gets a new key.
+    // Modifies: balance, balanceLabel, levelLabel, insufficientFundsLabel, purchaseKey
+    public void showPurchaseResult(OperationResult result) {
+        if (result != OperationResult.DUPLICATE_REQUEST) {
+            purchaseKey = null;
+        }
+        switch (result) {
+            case SUCCESS:
+                refresh();
+                break;
+            case INSUFFICIENT_FUNDS:
+                insufficientFundsLabel.setText("Insufficient Funds");
+                break;
+            case BELOW_MINIMUM_PURCHASE:
+                insufficientFundsLabel.setText("Purchase must be at least $50!");
+                break;
+            case INVALID_AMOUNT:
+                insufficientFundsLabel.setText("Please enter a positive dollar amount to purchase.");
+                break;
+            case RATE_LIMITED:
+                insufficientFundsLabel.setText("Too many purchases, try again shortly.");
+                break;
+            case DUPLICATE_REQUEST:
+                insufficientFundsLabel.setText("Purchase already in progress.");
+                break;
+            default:
+                insufficientFundsLabel.setText("Purchase failed.");
+                break;
+        }
+    }
+
+    /**
+     * Logs out the customer by ending the session and showing the login screen again.
      */
     public void logout() {
         // Effects: Logs out the customer by navigating to the login screen.
-        // Modifies: stage
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("login.fxml"));
-            Parent root = loader.load();
-            LoginController controller = loader.getController();
-            Scene scene = new Scene(root);
-            stage.setScene(scene);
-            controller.setStage(stage);
-            stage.show();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // Modifies: stage, this
+        screens.showLogin();
     }
     /**
      * Abstraction Function:
@@ -310,7 +492,7 @@ public class CustomerController {
      */
     @Override
     public String toString() {
-        return "CustomerController(username=" + username + ", balance=" + balance + ", level=" + level + ")";
+        return "CustomerController(username=" + username + ", balance=" + Money.format(balance) + ", level=" + level + ")";
     }
 
     /**
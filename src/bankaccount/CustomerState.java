@@ -1,11 +1,74 @@
 package bankaccount;
 
+/**
+ * A customer tier. Tiers are stateless and shared: each subclass has a single instance, and the
+ * customer they act for is passed in by the caller.
+ */
 public abstract class CustomerState {
-    protected CustomerController context;
 
-    public void setContext(CustomerController context) {
-        this.context = context;
+    public abstract String getLevel();
+
+    /**
+     * Returns the fee charged on every online purchase in this tier.
+     *
+     * @return The fee in cents.
+     */
+    public abstract long getPurchaseFee();
+
+    /**
+     * Returns the annual interest rate paid on balances in this tier.
+     *
+     * @return The rate in basis points, e.g. 150 for 1.5%.
+     */
+    public abstract int getInterestRate();
+
+    /**
+     * Returns the maintenance fee charged every month in this tier.
+     *
+     * @return The fee in cents.
+     */
+    public abstract long getMaintenanceFee();
+
+    /**
+     * Returns the interest earned in one month by a balance in this tier: a twelfth of the
+     * annual rate, rounded down to the cent. Negative balances earn nothing.
+     *
+     * @param balance The balance, in cents.
+     * @return The interest, in cents.
+     */
+    public long monthlyInterest(long balance) {
+        if (balance <= 0) {
+            return 0;
+        }
+        long divisor = 12 * 10_000;
+        return balance / divisor * getInterestRate() + balance % divisor * getInterestRate() / divisor;
     }
 
-    public abstract void purchaseOnline(double purchaseAmount);
+    /**
+     * Returns the maintenance fee charged for one month on a balance in this tier, which is
+     * never more than the balance itself.
+     *
+     * @param balance The balance, in cents.
+     * @return The fee, in cents.
+     */
+    public long monthlyFee(long balance) {
+        return Math.max(0, Math.min(getMaintenanceFee(), balance));
+    }
+
+    /**
+     * Makes an online purchase for a customer in the background and shows the outcome once it
+     * is durable. Repeated requests while one is in flight are dropped, and the purchase carries
+     * the controller's idempotency key, so a retry of a purchase that went through is not
+     * charged twice.
+     *
+     * @param context The controller of the customer making the purchase.
+     * @param purchaseAmount The purchase amount, in cents.
+     */
+    public void purchaseOnline(CustomerController context, long purchaseAmount) {
+        String username = context.getUsername();
+        String key = context.getPurchaseKey();
+        AsyncOperations.getInstance().submit(username + ":purchase",
+                () -> AccountEngine.getInstance().purchase(username, purchaseAmount, key),
+                context.forSession(context::showPurchaseResult));
+    }
 }
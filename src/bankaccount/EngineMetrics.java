@@ -0,0 +1,354 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and outcome counters of the operations of an {@link AccountEngine}.
+ *
+ * Every operation records its latency in a {@link LatencyHistogram} and counts its
+ * {@link OperationResult} under the tier the account was in, so that p99 latencies and the
+ * rate of insufficient funds, invalid input and storage errors per tier can be watched in
+ * production. Recording only touches preallocated atomic counters.
+ *
+ * The metrics can be read through JMX once {@link #register()} has been called, and written
+ * to a text file with {@link #dump(Path)}.
+ *
+ * This class is thread-safe.
+ */
+public final class EngineMetrics implements EngineMetricsMXBean {
+
+    public static final String OBJECT_NAME = "bankaccount:type=AccountEngine,name=Metrics";
+
+    /**
+     * Recorded tier of outcomes decided before the account was found, e.g. an invalid amount.
+     */
+    public static final int NO_TIER = -1;
+
+    /**
+     * The operations that are measured.
+     */
+    public enum Operation {
+        LOGIN,
+        LOAD,
+        BALANCE,
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER,
+        PURCHASE,
+        CREATE,
+        DELETE,
+        CHECKPOINT;
+
+        public String getKey() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * The latencies and outcome totals of one operation, as read at one moment.
+     *
+     * This class is immutable.
+     */
+    public static final class OperationMetrics {
+        private final String operation;
+        private final long count;
+        private final long successes;
+        private final long rejections;
+        private final long failures;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p90Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+        private final double maxMicros;
+
+        OperationMetrics(String operation, LatencyHistogram latencies, long successes, long rejections, long failures) {
+            this.operation = operation;
+            this.count = latencies.getCount();
+            this.successes = successes;
+            this.rejections = rejections;
+            this.failures = failures;
+            this.meanMicros = latencies.getMeanNanos() / 1e3;
+            this.p50Micros = latencies.getPercentileNanos(50) / 1e3;
+            this.p90Micros = latencies.getPercentileNanos(90) / 1e3;
+            this.p99Micros = latencies.getPercentileNanos(99) / 1e3;
+            this.p999Micros = latencies.getPercentileNanos(99.9) / 1e3;
+            this.maxMicros = latencies.getMaxNanos() / 1e3;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        /**
+         * Returns the number of operations refused for a business reason, such as insufficient
+         * funds, an invalid amount or wrong credentials.
+         *
+         * @return The number of rejections.
+         */
+        public long getRejections() {
+            return rejections;
+        }
+
+        /**
+         * Returns the number of operations that failed with a storage error.
+         *
+         * @return The number of failures.
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        public double getErrorRate() {
+            long outcomes = successes + rejections + failures;
+            return outcomes == 0 ? 0 : (double) failures / outcomes;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP90Micros() {
+            return p90Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getP999Micros() {
+            return p999Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+
+    private static final OperationResult[] RESULTS = OperationResult.values();
+
+    private final TierTable tiers;
+    private final LatencyHistogram[] latencies;
+    // Indexed by operation, result and tier + 1, so that NO_TIER has a slot.
+    private final LongAdder[][][] outcomes;
+
+    EngineMetrics(TierTable tiers) {
+        this.tiers = tiers;
+        Operation[] operations = Operation.values();
+        latencies = new LatencyHistogram[operations.length];
+        outcomes = new LongAdder[operations.length][RESULTS.length][tiers.size() + 1];
+        for (int i = 0; i < operations.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            for (LongAdder[] byTier : outcomes[i]) {
+                for (int t = 0; t < byTier.length; t++) {
+                    byTier[t] = new LongAdder();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a completed operation.
+     *
+     * @param operation The operation.
+     * @param startNanos The {@link System#nanoTime()} at which it started.
+     * @param tier The tier index of the account, or {@link #NO_TIER}.
+     * @param result The outcome.
+     * @return result, so that it can be returned directly.
+     */
+    OperationResult record(Operation operation, long startNanos, int tier, OperationResult result) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+        outcomes[operation.ordinal()][result.ordinal()][tier + 1].increment();
+        return result;
+    }
+
+    /**
+     * Records the latency of an operation that has no outcome of its own.
+     *
+     * @param operation The operation.
+     * @param startNanos The {@link System#nanoTime()} at which it started.
+     */
+    void record(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the latency histogram of an operation.
+     *
+     * @param operation The operation.
+     * @return Its histogram.
+     */
+    public LatencyHistogram latencies(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    /**
+     * Returns how often an operation had an outcome, over all tiers.
+     *
+     * @param operation The operation.
+     * @param result The outcome.
+     * @return The count.
+     */
+    public long count(Operation operation, OperationResult result) {
+        long total = 0;
+        for (LongAdder counter : outcomes[operation.ordinal()][result.ordinal()]) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public List<OperationMetrics> getOperations() {
+        List<OperationMetrics> result = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            long successes = 0;
+            long rejections = 0;
+            long failures = 0;
+            for (OperationResult outcome : RESULTS) {
+                long count = count(operation, outcome);
+                if (outcome == OperationResult.SUCCESS) {
+                    successes += count;
+                } else if (outcome == OperationResult.STORAGE_ERROR) {
+                    failures += count;
+                } else {
+                    rejections += count;
+                }
+            }
+            result.add(new OperationMetrics(operation.getKey(), latencies[operation.ordinal()], successes, rejections, failures));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getOutcomes() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            for (OperationResult outcome : RESULTS) {
+                LongAdder[] byTier = outcomes[operation.ordinal()][outcome.ordinal()];
+                for (int t = 0; t < byTier.length; t++) {
+                    long count = byTier[t].sum();
+                    if (count > 0) {
+                        String tier = t == 0 ? "none" : tiers.state(t - 1).getLevel();
+                        result.put(operation.getKey() + "." + tier + "." + outcome, count);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void dump(String path) throws IOException {
+        dump(Paths.get(path));
+    }
+
+    /**
+     * Writes the current metrics to a text file under a temporary name and then renames it,
+     * so that readers never see a partly written file.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void dump(Path file) throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(partial, toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i].reset();
+            for (LongAdder[] byTier : outcomes[i]) {
+                for (LongAdder counter : byTier) {
+                    counter.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as {@link #OBJECT_NAME},
+     * replacing any metrics registered earlier, e.g. by an engine that has since been closed.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the metrics registered as {@link #OBJECT_NAME} from the platform MBean server.
+     */
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.printf("Account engine metrics at %s (latencies in microseconds)%n", Instant.now());
+        out.printf("%-10s %12s %10s %10s %8s %10s %10s %10s %10s %10s %12s%n", "operation", "count", "rejected",
+                "failed", "errors", "mean", "p50", "p90", "p99", "p99.9", "max");
+        for (OperationMetrics metrics : getOperations()) {
+            if (metrics.getCount() == 0) {
+                continue;
+            }
+            out.printf("%-10s %,12d %,10d %,10d %7.3f%% %10.1f %10.1f %10.1f %10.1f %10.1f %12.1f%n", metrics.getOperation(),
+                    metrics.getCount(), metrics.getRejections(), metrics.getFailures(), metrics.getErrorRate() * 100,
+                    metrics.getMeanMicros(), metrics.getP50Micros(), metrics.getP90Micros(), metrics.getP99Micros(),
+                    metrics.getP999Micros(), metrics.getMaxMicros());
+        }
+        out.printf("%nOutcomes:%n");
+        for (Map.Entry<String, Long> outcome : getOutcomes().entrySet()) {
+            out.printf("  %-48s %,12d%n", outcome.getKey(), outcome.getValue());
+        }
+        out.flush();
+        return text.toString();
+    }
+}
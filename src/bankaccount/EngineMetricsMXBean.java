@@ -0,0 +1,42 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of the {@link EngineMetrics} of the shared {@link AccountEngine},
+ * registered as {@value EngineMetrics#OBJECT_NAME} so that latencies and outcome counts can be
+ * read with JConsole or any other JMX client.
+ */
+public interface EngineMetricsMXBean {
+
+    /**
+     * Returns the latency percentiles and outcome totals of every operation.
+     *
+     * @return One entry per operation.
+     */
+    List<EngineMetrics.OperationMetrics> getOperations();
+
+    /**
+     * Returns the non-zero outcome counters, keyed {@code operation.tier.OUTCOME}, e.g.
+     * {@code purchase.Gold.INSUFFICIENT_FUNDS}. Outcomes decided before an account was found
+     * have the tier {@code none}.
+     *
+     * @return The counters, sorted by key.
+     */
+    Map<String, Long> getOutcomes();
+
+    /**
+     * Writes the current metrics to a text file, replacing it.
+     *
+     * @param path The file to write.
+     * @throws IOException if the file could not be written.
+     */
+    void dump(String path) throws IOException;
+
+    /**
+     * Discards every latency and counter recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,139 @@
+package bankaccount;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded in-process event stream in the style of a ring buffer: publishers claim the next
+ * sequence number with a single atomic increment and write the event into its slot, never
+ * waiting for subscribers, and each {@link Subscription} reads the slots behind its own cursor
+ * at its own pace. A subscriber that falls more than {@code capacity} events behind misses the
+ * oldest ones, which it can see in {@link Subscription#getDropped()}, so a slow consumer such
+ * as a user interface can never hold up the publishers.
+ *
+ * The bus keeps no reference to its subscriptions: subscribing costs the publishers nothing,
+ * and a subscription that is no longer polled is simply garbage collected.
+ *
+ * This class is thread-safe.
+ *
+ * @param <E> The type of the events.
+ */
+public final class EventBus<E> {
+
+    // An event with the sequence number it was published under.
+    private static final class Slot<E> {
+        final long sequence;
+        final E event;
+
+        Slot(long sequence, E event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot<E>> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Creates a bus.
+     *
+     * @param capacity The number of most recent events kept for subscribers, rounded up to a
+     *        power of two.
+     * @throws IllegalArgumentException if capacity is not positive or too large.
+     */
+    public EventBus(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Publishes an event to every subscription, overwriting the oldest event kept.
+     *
+     * @param event The event.
+     */
+    public void publish(E event) {
+        long sequence = next.getAndIncrement();
+        slots.set((int) (sequence & mask), new Slot<>(sequence, event));
+    }
+
+    /**
+     * Returns the number of events published so far.
+     *
+     * @return The number of events.
+     */
+    public long getPublished() {
+        return next.get();
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * Starts a subscription that receives the events published from now on.
+     *
+     * @return The new subscription.
+     */
+    public Subscription subscribe() {
+        return new Subscription(next.get());
+    }
+
+    /**
+     * The read position of one subscriber.
+     *
+     * This class is not thread-safe: each subscription is polled by a single thread.
+     */
+    public final class Subscription {
+        private long cursor;
+        private long dropped;
+
+        private Subscription(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Passes the events published since the last poll to the consumer, oldest first, up
+         * to a maximum, skipping any that were overwritten before they were read.
+         *
+         * @param consumer Receives the events.
+         * @param max The maximum number of events to pass.
+         * @return The number of events passed.
+         */
+        // Modifies: this
+        public int poll(Consumer<? super E> consumer, int max) {
+            int polled = 0;
+            while (polled < max) {
+                Slot<E> slot = slots.get((int) (cursor & mask));
+                if (slot == null || slot.sequence < cursor) {
+                    break;
+                }
+                if (slot.sequence > cursor) {
+                    long oldest = Math.max(cursor + 1, next.get() - slots.length());
+                    dropped += oldest - cursor;
+                    cursor = oldest;
+                    continue;
+                }
+                consumer.accept(slot.event);
+                cursor++;
+                polled++;
+            }
+            return polled;
+        }
+
+        /**
+         * Returns the number of events this subscription missed because it fell too far
+         * behind.
+         *
+         * @return The number of events missed.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+    }
+}
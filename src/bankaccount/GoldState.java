@@ -2,19 +2,28 @@ package bankaccount;
 
 public class GoldState extends CustomerState {
 
+    public static final GoldState INSTANCE = new GoldState();
+
+    private GoldState() {
+    }
+
+    @Override
+    public String getLevel() {
+        return "Gold";
+    }
+
+    @Override
+    public long getPurchaseFee() {
+        return Money.of(10);
+    }
+
+    @Override
+    public int getInterestRate() {
+        return 150;
+    }
+
     @Override
-    public void purchaseOnline(double purchaseAmount) {
-        if (purchaseAmount >= 50) {
-            double fee = 10.0;
-            if (context.getBalance() >= purchaseAmount + fee) {
-                context.setBalance(context.getBalance() - (purchaseAmount + fee));
-                context.updateBalanceLabel();
-                context.updateLevel();
-            } else {
-                context.getInsufficientFundsLabel().setText("Insufficient Funds");
-            }
-        } else {
-            context.getInsufficientFundsLabel().setText("Purchase must be at least $50!");
-        }
+    public long getMaintenanceFee() {
+        return Money.of(2);
     }
 }
@@ -0,0 +1,120 @@
+package bankaccount;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the outcome of recent requests by their idempotency key, so that a request that is
+ * submitted again, e.g. after a double click or a client retry, is answered with the outcome of
+ * the first one instead of being carried out twice.
+ *
+ * Keys expire after a fixed time and at most {@code capacity} are kept: every new key takes the
+ * next slot of a ring, and the key that held the slot before is forgotten, oldest first. Keys
+ * are claimed with a single compare-and-set, so concurrent duplicates cannot both proceed, and
+ * nothing is locked. Keys are in memory only and are forgotten when the engine is closed.
+ *
+ * This class is thread-safe.
+ */
+public final class IdempotencyCache {
+
+    // The outcome of one key, null while its request is in progress.
+    private static final class Entry {
+        final String key;
+        final long expiresNanos;
+        volatile OperationResult result;
+
+        Entry(String key, long expiresNanos) {
+            this.key = key;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final AtomicReferenceArray<Entry> ring;
+    private final AtomicLong next = new AtomicLong();
+    private final long ttlNanos;
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity The maximum number of keys kept.
+     * @param ttl How long a key is remembered.
+     * @param unit The unit of ttl.
+     * @throws IllegalArgumentException if capacity is not positive.
+     */
+    public IdempotencyCache(int capacity, long ttl, TimeUnit unit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Claims a key for a request about to be carried out.
+     *
+     * @param key The idempotency key.
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return null if the key is new or expired and the caller must carry out the request and
+     *         then call {@link #complete} or {@link #release}; otherwise the outcome of the
+     *         earlier request, or DUPLICATE_REQUEST if it is still in progress.
+     */
+    public OperationResult claim(String key, long nowNanos) {
+        Entry fresh = null;
+        while (true) {
+            Entry existing = entries.get(key);
+            if (existing != null && existing.expiresNanos - nowNanos > 0) {
+                OperationResult result = existing.result;
+                return result == null ? OperationResult.DUPLICATE_REQUEST : result;
+            }
+            if (fresh == null) {
+                fresh = new Entry(key, nowNanos + ttlNanos);
+            }
+            if (existing == null ? entries.putIfAbsent(key, fresh) == null : entries.replace(key, existing, fresh)) {
+                Entry evicted = ring.getAndSet((int) (next.getAndIncrement() % ring.length()), fresh);
+                if (evicted != null && evicted != existing) {
+                    entries.remove(evicted.key, evicted);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a claimed key, to be returned for its duplicates.
+     *
+     * @param key A key claimed by the caller.
+     * @param result The outcome of the request.
+     */
+    public void complete(String key, OperationResult result) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.result == null) {
+            entry.result = result;
+        }
+    }
+
+    /**
+     * Forgets a claimed key without an outcome, so that the request can be retried, e.g.
+     * because it failed without taking effect.
+     *
+     * @param key A key claimed by the caller.
+     */
+    public void release(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.result == null) {
+            entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * Returns the number of keys currently remembered, including expired ones not yet replaced.
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return entries.size();
+    }
+}
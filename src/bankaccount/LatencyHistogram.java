@@ -0,0 +1,117 @@
+package bankaccount;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies into fixed log-linear buckets, in the manner of HdrHistogram: values below
+ * 128 ns each have a bucket, and every higher power-of-two range is split into 64 buckets, so
+ * percentiles are reported within about 1.6% of the true value. Values above
+ * {@link #MAX_TRACKABLE_NANOS} are counted in the highest bucket.
+ *
+ * Recording is a few atomic increments on preallocated counters, without locking or
+ * allocation, so it can stay on the hot path of every operation. Percentiles read while values
+ * are being recorded may miss the newest values.
+ *
+ * This class is thread-safe.
+ */
+public final class LatencyHistogram {
+
+    public static final long MAX_TRACKABLE_NANOS = 1L << 40;
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexFor(MAX_TRACKABLE_NANOS) + 1);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // Effects: Returns the bucket of a value: the value itself below SUB_BUCKETS, otherwise its
+    //          top SUB_BUCKET_BITS - 1 bits after the leading one, offset by its magnitude.
+    private static int indexFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Effects: Returns the highest value that falls in a bucket.
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long subBucket = index - (long) shift * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos The latency in nanoseconds; negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_TRACKABLE_NANOS);
+        counts.incrementAndGet(indexFor(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the latency at or below which a given share of the recorded latencies fall.
+     *
+     * @param percentile The share, from 0 to 100.
+     * @return The latency in nanoseconds, rounded up to the top of its bucket, or 0 if nothing
+     *         was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Discards every recorded latency. Latencies recorded during the reset may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -1,13 +1,8 @@
 package bankaccount;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
@@ -19,16 +14,32 @@ public class LoginController {
     @FXML
     private PasswordField passwordField;
     @FXML
+    private Button loginButton;
+    @FXML
     private Label messageLabel;
     
     private Stage stage;
-    private Scene scene;
-    private Parent root;
+    private Screens screens;
 
     public void setStage(Stage stage) {
         this.stage = stage;
     }
 
+    public void setScreens(Screens screens) {
+        this.screens = screens;
+    }
+
+    /**
+     * Clears the screen for the next user.
+     */
+    // Modifies: usernameField, passwordField, loginButton, messageLabel
+    public void reset() {
+        usernameField.clear();
+        passwordField.clear();
+        loginButton.setDisable(false);
+        messageLabel.setText("");
+    }
+
     public void login() {
         String username = usernameField.getText().trim();
         String password = passwordField.getText().trim();
@@ -44,58 +55,29 @@ public class LoginController {
             return;
         }
 
-        File file = new File(username + ".txt");
-        if (file.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                String storedUsername = br.readLine();
-                String storedPassword = br.readLine();
-                String role = br.readLine();
-                if (storedUsername.equals(username) && storedPassword.equals(password) && role.equals("customer")) {
-                    messageLabel.setText("Customer login successful.");
-                    loadCustomerInterface();
-                    return;
-                } else {
-                    messageLabel.setText("Invalid username or password.");
-                    return;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+        // Password hashing is slow by design, so it runs on the engine's verifier threads and
+        // only the outcome comes back to the JavaFX thread.
+        loginButton.setDisable(true);
+        messageLabel.setText("Checking credentials...");
+        AccountEngine.getInstance().authenticateAsync(username, password).whenComplete((role, error) -> Platform.runLater(() -> {
+            loginButton.setDisable(false);
+            if (error != null) {
+                error.printStackTrace();
+                messageLabel.setText("Login failed.");
+            } else if ("customer".equals(role)) {
+                messageLabel.setText("Customer login successful.");
+                loadCustomerInterface(username);
+            } else {
+                messageLabel.setText("Invalid username or password.");
             }
-        }
-
-        messageLabel.setText("Invalid username or password.");
+        }));
     }
 
     private void loadManagerInterface() {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("manager.fxml"));
-            Parent root = loader.load();
-            ManagerController controller = loader.getController();
-            Scene scene = new Scene(root);
-            Stage managerStage = new Stage();
-            managerStage.setScene(scene);
-            controller.setStage(managerStage);
-            stage.close();
-            managerStage.show();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        screens.showManager();
     }
 
-    private void loadCustomerInterface() {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("customer.fxml"));
-            Parent root = loader.load();
-            CustomerController controller = loader.getController();
-            controller.initialize(usernameField.getText().trim());
-            Scene scene = new Scene(root);
-            Stage customerStage = new Stage();
-            customerStage.setScene(scene);
-            controller.setStage(customerStage);
-            stage.close();
-            customerStage.show();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private void loadCustomerInterface(String username) {
+        screens.showCustomer(username);
     }
 }
@@ -1,19 +1,33 @@
 package bankaccount;
 
+import javafx.animation.AnimationTimer;
 import javafx.fxml.FXML;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import javafx.scene.Scene;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import java.io.IOException;
 import java.io.File;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class ManagerController {
+    // The number of most recent events shown on the dashboard.
+    private static final int DASHBOARD_ROWS = 200;
+    private static final long DASHBOARD_REFRESH_NANOS = 250_000_000L;
+    private static final DateTimeFormatter EVENT_TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
     @FXML
     private TextField newUsernameField;
     @FXML
@@ -22,16 +36,134 @@ public class ManagerController {
     private Label managerMessageLabel;
     @FXML
     private TextField deleteUsernameField;
+    @FXML
+    private ListView<String> eventListView;
+    @FXML
+    private Label dashboardLabel;
 
     private Stage stage;
-    private Scene loginScene;
+    private Screens screens;
+
+    private final AccountEngine engine = AccountEngine.getInstance();
+    private final AsyncOperations operations = AsyncOperations.getInstance();
+
+    private EventBus<AccountEvent>.Subscription subscription;
+    private AnimationTimer dashboardTimer;
+    private long upgrades;
+    private long downgrades;
+    private long largeTransactions;
+    // Counts the sessions this controller has been bound to; results of operations submitted
+    // in an earlier session are discarded.
+    private int session;
 
     public void setStage(Stage stage) {
         this.stage = stage;
     }
 
-    public void setLoginScene(Scene loginScene) {
-        this.loginScene = loginScene;
+    public void setScreens(Screens screens) {
+        this.screens = screens;
+    }
+
+    /**
+     * Starts a manager session on a screen that may have been used by an earlier one.
+     */
+    // Modifies: the fields, the dashboard
+    public void startSession() {
+        endSession();
+        startDashboard();
+    }
+
+    /**
+     * Ends the manager session: stops the dashboard and clears the screen, so nothing of the
+     * session is shown to the next manager, including results still in flight.
+     */
+    // Modifies: session, the fields, the dashboard
+    public void endSession() {
+        session++;
+        stopDashboard();
+        newUsernameField.clear();
+        newPasswordField.clear();
+        deleteUsernameField.clear();
+        managerMessageLabel.setText("");
+        eventListView.getItems().clear();
+        dashboardLabel.setText("");
+        upgrades = 0;
+        downgrades = 0;
+        largeTransactions = 0;
+    }
+
+    /**
+     * Starts the live dashboard: tier changes and large transactions are read from the engine's
+     * event bus a few times a second and shown newest first, in one update of the list per
+     * refresh however many events arrived, so that a high transaction rate costs the user
+     * interface a bounded amount of work and never holds up the engine.
+     */
+    // Effects: Subscribes to the engine's events and starts refreshing the dashboard.
+    // Modifies: subscription, dashboardTimer
+    public void startDashboard() {
+        if (dashboardTimer != null) {
+            return;
+        }
+        subscription = engine.getEvents().subscribe();
+        dashboardTimer = new AnimationTimer() {
+            private long lastRefresh;
+
+            @Override
+            public void handle(long now) {
+                if (now - lastRefresh >= DASHBOARD_REFRESH_NANOS) {
+                    lastRefresh = now;
+                    refreshDashboard();
+                }
+            }
+        };
+        dashboardTimer.start();
+        refreshDashboard();
+    }
+
+    /**
+     * Stops the live dashboard.
+     */
+    // Modifies: subscription, dashboardTimer
+    public void stopDashboard() {
+        if (dashboardTimer != null) {
+            dashboardTimer.stop();
+            dashboardTimer = null;
+            subscription = null;
+        }
+    }
+
+    // Effects: Drains the events published since the last refresh, updates the counters and
+    //          prepends the newest DASHBOARD_ROWS of them to the list in a single change.
+    // Modifies: upgrades, downgrades, largeTransactions, eventListView, dashboardLabel
+    private void refreshDashboard() {
+        ArrayDeque<AccountEvent> newest = new ArrayDeque<>();
+        subscription.poll(event -> {
+            if (event.getType() == AccountEvent.Type.LARGE_TRANSACTION) {
+                largeTransactions++;
+            } else if (event.isUpgrade()) {
+                upgrades++;
+            } else {
+                downgrades++;
+            }
+            if (newest.size() == DASHBOARD_ROWS) {
+                newest.removeLast();
+            }
+            newest.addFirst(event);
+        }, engine.getEvents().getCapacity());
+        if (!newest.isEmpty()) {
+            List<String> rows = new ArrayList<>(newest.size());
+            for (AccountEvent event : newest) {
+                rows.add(EVENT_TIME.format(Instant.ofEpochMilli(event.getTimeMillis())) + "  " + event);
+            }
+            List<String> items = eventListView.getItems();
+            items.addAll(0, rows);
+            if (items.size() > DASHBOARD_ROWS) {
+                items.subList(DASHBOARD_ROWS, items.size()).clear();
+            }
+        }
+        long missed = subscription.getDropped();
+        dashboardLabel.setText(String.format("Upgrades %,d  Downgrades %,d  Large %,d%s", upgrades, downgrades,
+                largeTransactions, missed > 0 ? String.format("  Missed %,d", missed) : ""));
     }
 
     public void addCustomer() {
@@ -43,19 +175,34 @@ public class ManagerController {
             return;
         }
 
-        if (new File(newUsername + ".txt").exists()) {
-            managerMessageLabel.setText("Customer already exists.");
-            return;
-        }
+        operations.submit("add:" + newUsername, () -> engine.createAccount(newUsername, newPassword, Money.of(100)),
+                forSession(this::showAddResult));
+    }
+
+    // Effects: Returns a callback that passes results to onResult only while the session that
+    //          submitted the operation is still bound.
+    <T> Consumer<T> forSession(Consumer<T> onResult) {
+        int submitted = session;
+        return value -> {
+            if (session == submitted) {
+                onResult.accept(value);
+            }
+        };
+    }
 
-        try {
-            Files.write(Paths.get(newUsername + ".txt"), (newUsername + "\n" + newPassword + "\ncustomer\n100.0").getBytes());
-            managerMessageLabel.setText("Customer added successfully with initial balance of $100.0.");
-            newUsernameField.clear();
-            newPasswordField.clear();
-        } catch (IOException e) {
-            e.printStackTrace();
-            managerMessageLabel.setText("Failed to add customer.");
+    private void showAddResult(OperationResult result) {
+        switch (result) {
+            case SUCCESS:
+                managerMessageLabel.setText("Customer added successfully with initial balance of $100.0.");
+                newUsernameField.clear();
+                newPasswordField.clear();
+                break;
+            case ACCOUNT_EXISTS:
+                managerMessageLabel.setText("Customer already exists.");
+                break;
+            default:
+                managerMessageLabel.setText("Failed to add customer.");
+                break;
         }
     }
 
@@ -67,31 +214,102 @@ public class ManagerController {
             return;
         }
 
-        File customerFile = new File(usernameToDelete + ".txt");
-        if (customerFile.exists()) {
-            if (customerFile.delete()) {
+        operations.submit("delete:" + usernameToDelete, () -> engine.deleteAccount(usernameToDelete),
+                forSession(result -> showDeleteResult(usernameToDelete, result)));
+    }
+
+    private void showDeleteResult(String usernameToDelete, OperationResult result) {
+        switch (result) {
+            case SUCCESS:
                 managerMessageLabel.setText("Customer '" + usernameToDelete + "' deleted successfully.");
                 deleteUsernameField.clear();
-            } else {
+                break;
+            case UNKNOWN_ACCOUNT:
+                managerMessageLabel.setText("Customer '" + usernameToDelete + "' does not exist.");
+                break;
+            default:
                 managerMessageLabel.setText("Failed to delete customer '" + usernameToDelete + "'.");
-            }
-        } else {
-            managerMessageLabel.setText("Customer '" + usernameToDelete + "' does not exist.");
+                break;
         }
     }
 
-    public void logout() {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("login.fxml"));
-            Parent root = loader.load();
-            LoginController controller = loader.getController();
-            Scene scene = new Scene(root);
-
-            stage.setScene(scene);
-            controller.setStage(stage);
-            stage.show();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public void bulkAddCustomers() {
+        runBulk("Choose a file of username,password[,balance] lines", "add",
+                (input, rejects) -> BulkProvisioning.provision(engine, input, rejects));
+    }
+
+    public void bulkDeleteCustomers() {
+        runBulk("Choose a file of usernames to delete", "delete",
+                (input, rejects) -> BulkProvisioning.deprovision(engine, input, rejects));
+    }
+
+    // A bulk operation over a chosen file that writes its rejected lines to a second file.
+    private interface BulkOperation {
+        OperationReport run(Path input, Path rejects) throws IOException;
+    }
+
+    private void runBulk(String title, String verb, BulkOperation operation) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        File file = chooser.showOpenDialog(stage);
+        if (file == null) {
+            return;
         }
+        Path input = file.toPath();
+        Path rejects = Paths.get(file.getPath() + ".rejected");
+        managerMessageLabel.setText("Bulk " + verb + " in progress...");
+        operations.submit("bulk", () -> {
+            try {
+                return operation.run(input, rejects);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, forSession(report -> managerMessageLabel.setText(String.format(
+                "Bulk %s: %,d of %,d applied (%,.0f/s), %,d rejected%s.",
+                verb, report.count(OperationResult.SUCCESS), report.total(), report.perSecond(), report.rejected(),
+                report.rejected() > 0 ? ", see " + rejects.getFileName() : ""))),
+                forSession(failure -> showFailure("Bulk " + verb, failure)));
+    }
+
+    public void takeSnapshot() {
+        managerMessageLabel.setText("Snapshot in progress...");
+        operations.submit("snapshot", () -> {
+            try {
+                return engine.snapshot();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, forSession(snapshot -> managerMessageLabel.setText("Snapshot written to " + snapshot.getFileName() + ".")),
+                forSession(failure -> showFailure("Snapshot", failure)));
+    }
+
+    public void showReport() {
+        managerMessageLabel.setText("Report in progress...");
+        operations.submit("report", () -> {
+            try {
+                return engine.report(AccountReport.DEFAULT_TOP);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, forSession(report -> {
+            managerMessageLabel.setText("");
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Account Report");
+            alert.setHeaderText(String.format("Total assets $%s across %,d customers",
+                    Money.format(report.getTotalAssets()), report.getCustomers()));
+            alert.setContentText(report.toString());
+            alert.show();
+        }), forSession(failure -> showFailure("Report", failure)));
+    }
+
+    // Effects: Replaces the in progress message of a background operation with its failure.
+    // Modifies: managerMessageLabel
+    private void showFailure(String operation, RuntimeException failure) {
+        Throwable cause = failure instanceof UncheckedIOException ? failure.getCause() : failure;
+        managerMessageLabel.setText(operation + " failed: " + cause.getMessage());
+    }
+
+    public void logout() {
+        screens.showLogin();
     }
 }
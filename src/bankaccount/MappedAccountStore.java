@@ -0,0 +1,725 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Stores all accounts as fixed-size records in a single memory-mapped file
+ * ({@code accounts.dat}), located through an open-addressing hash index kept in a second
+ * mapped file ({@code accounts.idx}).
+ *
+ * Lookups cost one hash probe sequence and balance updates are written in place, so no file
+ * is opened per operation. Record layout (128 bytes):
+ * <pre>
+ *   0  long  balance in cents (next free record while the record is free)
+ *   8  byte  state (0 free, 1 in use)
+ *   9  byte  role (0 customer, 1 manager)
+ *  10  byte  tier (index into the engine's tier table)
+ *  11  byte  username length
+ *  12  int   password hash iterations (0 for an unsalted hash from version 1)
+ *  16  16 bytes password salt
+ *  32  32 bytes password hash
+ *  64  64 bytes username (UTF-8)
+ * </pre>
+ * Files written by version 1 of the layout, which kept an unsalted hash and no salt, are
+ * rewritten in place when opened; a copy ({@code accounts.dat.v1}) is kept until the rewrite
+ * is on disk so an interrupted upgrade starts again from the original.
+ * Index entries are longs holding the username hash in the high half and the record number
+ * plus one in the low half. The index header keeps the number of tombstones left by deletes,
+ * so that a cleanly reopened index is still compacted once they pile up. The index is rebuilt from the records whenever the store was not
+ * closed cleanly, so it never has to be crash-consistent itself.
+ *
+ * This class is thread-safe.
+ */
+public class MappedAccountStore implements AccountStore {
+
+    private static final int DATA_MAGIC = 0x42414431; // "BAD1"
+    private static final int INDEX_MAGIC = 0x42414932; // "BAI2"
+    private static final int VERSION = 2;
+    private static final int LEGACY_VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_HIGH_WATER = 12;
+    private static final int H_LIVE = 16;
+    private static final int H_FREE_HEAD = 20;
+    private static final int H_CLEAN = 24;
+
+    static final int RECORD_SIZE = 128;
+    static final int OFF_BALANCE = 0;
+    static final int OFF_STATE = 8;
+    static final int OFF_ROLE = 9;
+    static final int OFF_TIER = 10;
+    static final int OFF_NAME_LENGTH = 11;
+    static final int OFF_ITERATIONS = 12;
+    static final int OFF_SALT = 16;
+    static final int OFF_HASH = 32;
+    static final int OFF_NAME = 64;
+    static final int MAX_NAME_LENGTH = 64;
+
+    private static final byte FREE = 0;
+    private static final byte IN_USE = 1;
+    private static final byte ROLE_CUSTOMER = 0;
+    private static final byte ROLE_MANAGER = 1;
+
+    private static final int INDEX_HEADER_SIZE = 16;
+    private static final int I_MAGIC = 0;
+    private static final int I_CAPACITY = 4;
+    private static final int I_TOMBSTONES = 8;
+    private static final long TOMBSTONE = 0xFFFFFFFF00000000L;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int SCAN_CHUNK = 16 * 1024;
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final Path legacyCopy;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel dataChannel;
+    private FileChannel indexChannel;
+    private MappedByteBuffer data;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int indexCapacity;
+    private int tombstones;
+
+    /**
+     * Opens the store in the given directory, creating its files if they do not exist.
+     *
+     * @param directory The directory holding {@code accounts.dat} and {@code accounts.idx}.
+     * @throws IOException if the files could not be opened or are not account files.
+     */
+    public MappedAccountStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        dataFile = directory.resolve("accounts.dat");
+        indexFile = directory.resolve("accounts.idx");
+        legacyCopy = directory.resolve("accounts.dat.v1");
+        if (Files.exists(legacyCopy)) {
+            Files.copy(legacyCopy, dataFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        boolean created = !Files.exists(dataFile);
+        dataChannel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (created) {
+            capacity = INITIAL_CAPACITY;
+            mapData();
+            data.putInt(H_MAGIC, DATA_MAGIC);
+            data.putInt(H_VERSION, VERSION);
+            data.putInt(H_CAPACITY, capacity);
+            data.putInt(H_FREE_HEAD, -1);
+        } else {
+            capacity = (int) ((dataChannel.size() - HEADER_SIZE) / RECORD_SIZE);
+            mapData();
+            if (data.getInt(H_MAGIC) != DATA_MAGIC
+                    || (data.getInt(H_VERSION) != VERSION && data.getInt(H_VERSION) != LEGACY_VERSION)) {
+                throw new IOException("Unrecognized account file " + dataFile);
+            }
+            if (data.getInt(H_VERSION) == LEGACY_VERSION) {
+                upgradeLegacyRecords();
+            }
+        }
+        boolean clean = data.get(H_CLEAN) == 1;
+        data.put(H_CLEAN, (byte) 0);
+        data.force();
+        if (clean && Files.exists(indexFile)) {
+            indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+            indexCapacity = index.getInt(I_CAPACITY);
+            tombstones = index.getInt(I_TOMBSTONES);
+            if (index.getInt(I_MAGIC) != INDEX_MAGIC || indexCapacity < capacity || tombstones > indexCapacity / 4) {
+                rebuildIndex();
+            }
+        } else {
+            rebuildIndex();
+        }
+    }
+
+    private void mapData() throws IOException {
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+    }
+
+    // Effects: Rewrites every record from the version 1 layout to the current one, keeping a
+    //          copy of the original file until the rewrite has been forced to disk.
+    // Modifies: data, the index file
+    private void upgradeLegacyRecords() throws IOException {
+        data.force();
+        Path partialCopy = legacyCopy.resolveSibling(legacyCopy.getFileName() + ".tmp");
+        Files.copy(dataFile, partialCopy, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(partialCopy, legacyCopy, StandardCopyOption.ATOMIC_MOVE);
+        int highWater = data.getInt(H_HIGH_WATER);
+        byte[] old = new byte[RECORD_SIZE];
+        for (int record = 0; record < highWater; record++) {
+            int offset = recordOffset(record);
+            data.get(offset, old);
+            ByteBuffer legacy = ByteBuffer.wrap(old);
+            data.put(offset, new byte[RECORD_SIZE]);
+            data.putLong(offset + OFF_BALANCE, legacy.getLong(8));
+            data.put(offset + OFF_STATE, old[16]);
+            data.put(offset + OFF_ROLE, old[17]);
+            data.put(offset + OFF_TIER, old[18]);
+            data.put(offset + OFF_NAME_LENGTH, old[19]);
+            data.putInt(offset + OFF_ITERATIONS, 0);
+            data.put(offset + OFF_HASH, old, 20, Credentials.HASH_LENGTH);
+            data.put(offset + OFF_NAME, old, 52, MAX_NAME_LENGTH);
+        }
+        data.putInt(H_VERSION, VERSION);
+        data.put(H_CLEAN, (byte) 0);
+        data.force();
+        Files.delete(legacyCopy);
+    }
+
+    private static int recordOffset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    // Effects: Spreads the hash of a username so that similar names land far apart.
+    private static int hash(String username) {
+        int h = username.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static byte[] encode(String username) throws IOException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_LENGTH) {
+            throw new IOException("Username longer than " + MAX_NAME_LENGTH + " bytes: " + username);
+        }
+        return name;
+    }
+
+    private boolean nameEquals(int record, byte[] name) {
+        int offset = recordOffset(record);
+        if ((data.get(offset + OFF_NAME_LENGTH) & 0xFF) != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (data.get(offset + OFF_NAME + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String nameOf(int record) {
+        int offset = recordOffset(record);
+        byte[] name = new byte[data.get(offset + OFF_NAME_LENGTH) & 0xFF];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = data.get(offset + OFF_NAME + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    // Effects: Returns the index slot holding the given username, or -1 if it is not indexed.
+    // Requires: The caller holds the lock.
+    private int findSlot(byte[] name, int hash) {
+        int mask = indexCapacity - 1;
+        int slot = hash & mask;
+        while (true) {
+            long entry = index.getLong(INDEX_HEADER_SIZE + slot * 8);
+            if (entry == 0) {
+                return -1;
+            }
+            int record = (int) entry - 1;
+            if (record >= 0 && (int) (entry >>> 32) == hash && nameEquals(record, name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Effects: Returns the record number holding the given username, or -1 if there is none.
+    // Requires: The caller holds the lock.
+    private int find(String username) throws IOException {
+        int hash = hash(username);
+        int slot = findSlot(encode(username), hash);
+        return slot < 0 ? -1 : (int) index.getLong(INDEX_HEADER_SIZE + slot * 8) - 1;
+    }
+
+    // Effects: Adds an index entry for record.
+    // Requires: The caller holds the write lock and the username is not indexed.
+    private void insertIndex(int hash, int record) {
+        int mask = indexCapacity - 1;
+        int slot = hash & mask;
+        while (true) {
+            long entry = index.getLong(INDEX_HEADER_SIZE + slot * 8);
+            if (entry == 0 || entry == TOMBSTONE) {
+                if (entry == TOMBSTONE) {
+                    index.putInt(I_TOMBSTONES, --tombstones);
+                }
+                index.putLong(INDEX_HEADER_SIZE + slot * 8, ((long) hash << 32) | (record + 1L));
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Effects: Recreates the index file sized for the current capacity from the in-use records.
+    // Modifies: index, indexCapacity, tombstones
+    private void rebuildIndex() throws IOException {
+        indexCapacity = Integer.highestOneBit(capacity) * 4;
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) indexCapacity * 8);
+        index.putInt(I_MAGIC, INDEX_MAGIC);
+        index.putInt(I_CAPACITY, indexCapacity);
+        tombstones = 0;
+        int highWater = data.getInt(H_HIGH_WATER);
+        for (int record = 0; record < highWater; record++) {
+            if (data.get(recordOffset(record) + OFF_STATE) == IN_USE) {
+                insertIndex(hash(nameOf(record)), record);
+            }
+        }
+    }
+
+    // Effects: Returns a free record number, doubling the data file when it is full.
+    // Modifies: data, capacity, index
+    // Requires: The caller holds the write lock.
+    private int allocate() throws IOException {
+        int free = data.getInt(H_FREE_HEAD);
+        if (free >= 0) {
+            data.putInt(H_FREE_HEAD, (int) data.getLong(recordOffset(free) + OFF_BALANCE));
+            return free;
+        }
+        int highWater = data.getInt(H_HIGH_WATER);
+        ensureCapacity(highWater + 1);
+        data.putInt(H_HIGH_WATER, highWater + 1);
+        return highWater;
+    }
+
+    // Effects: Doubles the data file until it holds at least records records, rebuilding the
+    //          index once if it grew.
+    // Modifies: data, capacity, index
+    // Requires: The caller holds the write lock.
+    private void ensureCapacity(long records) throws IOException {
+        if (records <= capacity) {
+            return;
+        }
+        long grown = capacity;
+        while (grown < records) {
+            grown *= 2;
+        }
+        if (grown * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+            throw new IOException("Account file is full");
+        }
+        capacity = (int) grown;
+        mapData();
+        data.putInt(H_CAPACITY, capacity);
+        rebuildIndex();
+    }
+
+    /**
+     * Returns the number of accounts in the store.
+     *
+     * @return The number of accounts.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return data.getInt(H_LIVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Account load(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            int record = find(username);
+            if (record < 0) {
+                return null;
+            }
+            int offset = recordOffset(record);
+            String role = data.get(offset + OFF_ROLE) == ROLE_CUSTOMER ? "customer" : "manager";
+            return new Account(username, role, data.getLong(offset + OFF_BALANCE));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(String username) {
+        lock.readLock().lock();
+        try {
+            return find(username) >= 0;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an account whose password has already been hashed, e.g. when many accounts are
+     * provisioned at once and the hashing is done in parallel beforehand.
+     *
+     * @param account The account to add.
+     * @param credential The hashed password.
+     * @throws IOException if the account already exists or the username is too long.
+     */
+    @Override
+    public void createHashed(Account account, Credentials.Hashed credential) throws IOException {
+        byte[] name = encode(account.getUsername());
+        int hash = hash(account.getUsername());
+        lock.writeLock().lock();
+        try {
+            if (findSlot(name, hash) >= 0) {
+                throw new IOException("Account already exists: " + account.getUsername());
+            }
+            int record = allocate();
+            int offset = recordOffset(record);
+            data.putLong(offset + OFF_BALANCE, account.getBalance());
+            data.put(offset + OFF_ROLE, "customer".equals(account.getRole()) ? ROLE_CUSTOMER : ROLE_MANAGER);
+            data.put(offset + OFF_TIER, (byte) account.getTier());
+            data.put(offset + OFF_NAME_LENGTH, (byte) name.length);
+            writeCredential(offset, credential);
+            data.put(offset + OFF_NAME, name);
+            data.put(offset + OFF_STATE, IN_USE);
+            data.putInt(H_LIVE, data.getInt(H_LIVE) + 1);
+            insertIndex(hash, record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds many accounts as one transaction. Every new record is written past the high-water
+     * mark, forced to disk, and committed by advancing the high-water mark in the header, so
+     * after a crash either the whole batch or none of it is in the store. Usernames that
+     * already exist, or appear earlier in the batch, are found through the hash index and
+     * skipped. New records are always appended, so the space of deleted records is only
+     * reused by single creates.
+     *
+     * @param accounts The accounts to add.
+     * @param credentials The hashed password of each account; null for an account that is
+     *        known to exist already.
+     * @return For each account, whether it was created.
+     * @throws IOException if a username is too long, in which case nothing is created.
+     */
+    @Override
+    public boolean[] createAllHashed(List<Account> accounts, List<Credentials.Hashed> credentials) throws IOException {
+        int count = accounts.size();
+        byte[][] names = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            names[i] = encode(accounts.get(i).getUsername());
+        }
+        boolean[] created = new boolean[count];
+        lock.writeLock().lock();
+        try {
+            int highWater = data.getInt(H_HIGH_WATER);
+            ensureCapacity((long) highWater + count);
+            Set<String> batch = new HashSet<>();
+            int record = highWater;
+            for (int i = 0; i < count; i++) {
+                Account account = accounts.get(i);
+                if (credentials.get(i) == null || findSlot(names[i], hash(account.getUsername())) >= 0
+                        || !batch.add(account.getUsername())) {
+                    continue;
+                }
+                int offset = recordOffset(record++);
+                data.put(offset, new byte[RECORD_SIZE]);
+                data.putLong(offset + OFF_BALANCE, account.getBalance());
+                data.put(offset + OFF_ROLE, "customer".equals(account.getRole()) ? ROLE_CUSTOMER : ROLE_MANAGER);
+                data.put(offset + OFF_TIER, (byte) account.getTier());
+                data.put(offset + OFF_NAME_LENGTH, (byte) names[i].length);
+                writeCredential(offset, credentials.get(i));
+                data.put(offset + OFF_NAME, names[i]);
+                data.put(offset + OFF_STATE, IN_USE);
+                created[i] = true;
+            }
+            data.force();
+            data.putInt(H_HIGH_WATER, record);
+            data.putInt(H_LIVE, data.getInt(H_LIVE) + record - highWater);
+            data.force();
+            for (int i = 0, next = highWater; i < count; i++) {
+                if (created[i]) {
+                    insertIndex(hash(accounts.get(i).getUsername()), next++);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return created;
+    }
+
+    private void writeCredential(int offset, Credentials.Hashed credential) {
+        data.putInt(offset + OFF_ITERATIONS, credential.getIterations());
+        data.put(offset + OFF_SALT, credential.getSalt());
+        data.put(offset + OFF_HASH, credential.getHash());
+    }
+
+    /**
+     * Checks a password against the stored salted hash. The hashing is done without holding
+     * the store's lock. A credential written with fewer iterations than new ones, or an
+     * unsalted one imported from an earlier version, is rehashed when the password matches.
+     *
+     * @param username The username of the account.
+     * @param password The password to check.
+     * @return True if the account exists and the password matches.
+     * @throws IOException if the username is too long to be stored.
+     */
+    @Override
+    public boolean checkPassword(String username, String password) throws IOException {
+        byte[] salt = new byte[Credentials.SALT_LENGTH];
+        byte[] stored = new byte[Credentials.HASH_LENGTH];
+        int iterations;
+        lock.readLock().lock();
+        try {
+            int record = find(username);
+            if (record < 0) {
+                return false;
+            }
+            int offset = recordOffset(record);
+            iterations = data.getInt(offset + OFF_ITERATIONS);
+            data.get(offset + OFF_SALT, salt);
+            data.get(offset + OFF_HASH, stored);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Credentials.Hashed credential = new Credentials.Hashed(iterations, salt, stored);
+        if (!credential.matches(password)) {
+            return false;
+        }
+        if (credential.isOutdated()) {
+            Credentials.Hashed upgraded = Credentials.create(password);
+            lock.writeLock().lock();
+            try {
+                int record = find(username);
+                if (record >= 0 && data.getInt(recordOffset(record) + OFF_ITERATIONS) == iterations) {
+                    writeCredential(recordOffset(record), upgraded);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean delete(String username) throws IOException {
+        return deleteAll(List.of(username))[0];
+    }
+
+    /**
+     * Deletes many accounts under a single acquisition of the store's lock, rebuilding the
+     * index at most once.
+     *
+     * @param usernames The usernames of the accounts to delete.
+     * @return For each username, whether an account was deleted.
+     * @throws IOException if a username is too long.
+     */
+    @Override
+    public boolean[] deleteAll(List<String> usernames) throws IOException {
+        boolean[] deleted = new boolean[usernames.size()];
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < deleted.length; i++) {
+                String username = usernames.get(i);
+                int slot = findSlot(encode(username), hash(username));
+                if (slot < 0) {
+                    continue;
+                }
+                int record = (int) index.getLong(INDEX_HEADER_SIZE + slot * 8) - 1;
+                index.putLong(INDEX_HEADER_SIZE + slot * 8, TOMBSTONE);
+                index.putInt(I_TOMBSTONES, ++tombstones);
+                int offset = recordOffset(record);
+                data.put(offset + OFF_STATE, FREE);
+                data.putLong(offset + OFF_BALANCE, data.getInt(H_FREE_HEAD));
+                data.putInt(H_FREE_HEAD, record);
+                data.putInt(H_LIVE, data.getInt(H_LIVE) - 1);
+                deleted[i] = true;
+            }
+            if (tombstones > indexCapacity / 4) {
+                rebuildIndex();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    // Effects: Returns the number of tombstones in the index.
+    int tombstones() {
+        lock.readLock().lock();
+        try {
+            return tombstones;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveBalance(String username, long balance, int tier) throws IOException {
+        lock.readLock().lock();
+        try {
+            int record = find(username);
+            if (record < 0) {
+                throw new IOException("No such account: " + username);
+            }
+            int offset = recordOffset(record);
+            data.putLong(offset + OFF_BALANCE, balance);
+            data.put(offset + OFF_TIER, (byte) tier);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) {
+        lock.readLock().lock();
+        try {
+            int highWater = data.getInt(H_HIGH_WATER);
+            for (int record = 0; record < highWater; record++) {
+                if (data.get(recordOffset(record) + OFF_STATE) == IN_USE) {
+                    action.accept(nameOf(record));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Effects: Passes every account, with its stored tier, and its hashed password to action,
+    //          e.g. to copy the accounts into another store.
+    void forEachAccount(BiConsumer<Account, Credentials.Hashed> action) {
+        lock.readLock().lock();
+        try {
+            int highWater = data.getInt(H_HIGH_WATER);
+            for (int record = 0; record < highWater; record++) {
+                int offset = recordOffset(record);
+                if (data.get(offset + OFF_STATE) != IN_USE) {
+                    continue;
+                }
+                byte[] salt = new byte[Credentials.SALT_LENGTH];
+                byte[] hash = new byte[Credentials.HASH_LENGTH];
+                data.get(offset + OFF_SALT, salt);
+                data.get(offset + OFF_HASH, hash);
+                Account account = new Account(nameOf(record), data.get(offset + OFF_ROLE) == ROLE_CUSTOMER ? "customer" : "manager",
+                        data.getLong(offset + OFF_BALANCE));
+                account.setTier(data.get(offset + OFF_TIER));
+                action.accept(account, new Credentials.Hashed(data.getInt(offset + OFF_ITERATIONS), salt, hash));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Folds the records in parallel: the records are split into chunks that are scanned on the
+     * common fork-join pool, straight from the mapped file, decoding a username only when the
+     * accumulator asks for it. Writers wait until the scan completes.
+     */
+    @Override
+    public <R> R reduce(Supplier<R> supplier, BiConsumer<R, Record> accumulator, BinaryOperator<R> combiner) {
+        lock.readLock().lock();
+        try {
+            int highWater = data.getInt(H_HIGH_WATER);
+            int chunks = (highWater + SCAN_CHUNK - 1) / SCAN_CHUNK;
+            return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+                R partial = supplier.get();
+                MappedRecord record = new MappedRecord();
+                int last = Math.min(highWater, (chunk + 1) * SCAN_CHUNK);
+                for (int i = chunk * SCAN_CHUNK; i < last; i++) {
+                    record.offset = recordOffset(i);
+                    if (data.get(record.offset + OFF_STATE) == IN_USE) {
+                        accumulator.accept(partial, record);
+                    }
+                }
+                return partial;
+            }).reduce(combiner).orElseGet(supplier);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // A view of the record being scanned by reduce.
+    private final class MappedRecord implements Record {
+        int offset;
+
+        @Override
+        public String username() {
+            return nameOf((offset - HEADER_SIZE) / RECORD_SIZE);
+        }
+
+        @Override
+        public boolean isCustomer() {
+            return data.get(offset + OFF_ROLE) == ROLE_CUSTOMER;
+        }
+
+        @Override
+        public long balance() {
+            return data.getLong(offset + OFF_BALANCE);
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            data.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the header and the account's record to disk; the index need not be forced, since
+     * it is rebuilt from the records after a crash.
+     *
+     * @param username The username of the account.
+     * @throws IOException if the account does not exist.
+     */
+    @Override
+    public void flush(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            int record = find(username);
+            if (record < 0) {
+                throw new IOException("No such account: " + username);
+            }
+            data.force(0, HEADER_SIZE);
+            data.force(recordOffset(record), RECORD_SIZE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces both files to disk, marks the store as cleanly closed and releases the files.
+     *
+     * @throws IOException if the files could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            index.force();
+            data.put(H_CLEAN, (byte) 1);
+            data.force();
+            indexChannel.close();
+            dataChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
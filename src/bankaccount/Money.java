@@ -0,0 +1,125 @@
+package bankaccount;
+
+/**
+ * Exact fixed-point money arithmetic on primitive {@code long} amounts of cents.
+ *
+ * Parsing and appending do not allocate, so fee and tier calculations on the hot path stay
+ * exact without creating {@code double}s, boxes or intermediate strings.
+ */
+public final class Money {
+
+    public static final int SCALE = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Returns the number of cents in a whole number of dollars.
+     *
+     * @param dollars The whole dollar amount.
+     * @return The amount in cents.
+     */
+    public static long of(long dollars) {
+        return Math.multiplyExact(dollars, SCALE);
+    }
+
+    /**
+     * Rounds a legacy floating-point dollar amount to the nearest cent.
+     *
+     * @param dollars The dollar amount.
+     * @return The amount in cents.
+     */
+    public static long fromDouble(double dollars) {
+        return Math.round(dollars * SCALE);
+    }
+
+    /**
+     * Parses a decimal dollar amount such as {@code "12"}, {@code "-3.5"} or {@code "100.25"}.
+     *
+     * @param text The text to parse; surrounding whitespace is not allowed.
+     * @return The amount in cents.
+     * @throws NumberFormatException if the text is not a decimal number with at most two
+     *         fraction digits, or does not fit in a long.
+     */
+    public static long parse(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+        long dollars = 0;
+        int digits = 0;
+        for (; i < length && text.charAt(i) != '.'; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid(text);
+            }
+            try {
+                dollars = Math.addExact(Math.multiplyExact(dollars, 10), digit);
+            } catch (ArithmeticException e) {
+                throw invalid(text);
+            }
+            digits++;
+        }
+        long cents = 0;
+        int fraction = 0;
+        if (i < length) {
+            for (i++; i < length; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9 || fraction == 2) {
+                    throw invalid(text);
+                }
+                cents = cents * 10 + digit;
+                fraction++;
+            }
+        }
+        if (digits + fraction == 0) {
+            throw invalid(text);
+        }
+        if (fraction == 1) {
+            cents *= 10;
+        }
+        long result;
+        try {
+            result = Math.addExact(Math.multiplyExact(dollars, SCALE), cents);
+        } catch (ArithmeticException e) {
+            throw invalid(text);
+        }
+        return negative ? -result : result;
+    }
+
+    private static NumberFormatException invalid(CharSequence text) {
+        return new NumberFormatException("Not a money amount: \"" + text + "\"");
+    }
+
+    /**
+     * Appends an amount as dollars with two fraction digits, e.g. {@code 12345} as
+     * {@code "123.45"}.
+     *
+     * @param builder The builder to append to.
+     * @param cents The amount in cents.
+     * @return The builder.
+     */
+    public static StringBuilder appendTo(StringBuilder builder, long cents) {
+        if (cents < 0) {
+            builder.append('-');
+        }
+        long dollars = Math.abs(cents / SCALE);
+        int remainder = (int) Math.abs(cents % SCALE);
+        builder.append(dollars).append('.');
+        builder.append((char) ('0' + remainder / 10)).append((char) ('0' + remainder % 10));
+        return builder;
+    }
+
+    /**
+     * Formats an amount as dollars with two fraction digits.
+     *
+     * @param cents The amount in cents.
+     * @return The formatted amount.
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+}
@@ -0,0 +1,109 @@
+package bankaccount;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of the outcomes of a batch run, such as a {@link BatchImport} or a
+ * {@link BulkProvisioning}, with its throughput.
+ *
+ * This class is thread-safe.
+ */
+public class OperationReport {
+    private final Map<OperationResult, AtomicLong> results = new EnumMap<>(OperationResult.class);
+    private final AtomicLong malformed = new AtomicLong();
+    private volatile long elapsedNanos;
+    private volatile Throwable failure;
+    private volatile long failedAtLine;
+
+    OperationReport() {
+        for (OperationResult result : OperationResult.values()) {
+            results.put(result, new AtomicLong());
+        }
+    }
+
+    // Modifies: results
+    void record(OperationResult result) {
+        results.get(result).incrementAndGet();
+    }
+
+    // Modifies: malformed
+    void recordMalformed() {
+        malformed.incrementAndGet();
+    }
+
+    // Modifies: elapsedNanos
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // Effects: Records that the run stopped on an unexpected failure after reading line.
+    // Modifies: failure, failedAtLine
+    void setFailure(Throwable failure, long line) {
+        this.failedAtLine = line;
+        this.failure = failure;
+    }
+
+    /**
+     * Returns the failure that stopped the run before every record was applied.
+     *
+     * @return The failure, or null if the run completed.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns the last input line read before the run stopped on a failure; records up to it
+     * may or may not have been applied.
+     *
+     * @return The line number, or 0 if the run completed.
+     */
+    public long getFailedAtLine() {
+        return failedAtLine;
+    }
+
+    public long count(OperationResult result) {
+        return results.get(result).get();
+    }
+
+    public long malformed() {
+        return malformed.get();
+    }
+
+    public long total() {
+        long total = malformed.get();
+        for (AtomicLong count : results.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public long rejected() {
+        return total() - count(OperationResult.SUCCESS);
+    }
+
+    public double perSecond() {
+        return elapsedNanos == 0 ? 0 : total() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%,d records in %.2f s (%,.0f records/s)%n", total(), elapsedNanos / 1e9, perSecond()));
+        text.append(String.format("  %-24s %,d%n", "applied", count(OperationResult.SUCCESS)));
+        for (OperationResult result : OperationResult.values()) {
+            if (result != OperationResult.SUCCESS && count(result) > 0) {
+                text.append(String.format("  %-24s %,d%n", result.name().toLowerCase(), count(result)));
+            }
+        }
+        if (malformed() > 0) {
+            text.append(String.format("  %-24s %,d%n", "malformed", malformed()));
+        }
+        if (failure != null) {
+            text.append(String.format("  %-24s after line %,d: %s%n", "stopped", failedAtLine, failure));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package bankaccount;
+
+/**
+ * Outcome of an account operation performed through the {@link AccountEngine}.
+ */
+public enum OperationResult {
+    SUCCESS,
+    INVALID_AMOUNT,
+    INSUFFICIENT_FUNDS,
+    BELOW_MINIMUM_PURCHASE,
+    UNKNOWN_ACCOUNT,
+    ACCOUNT_EXISTS,
+    STORAGE_ERROR,
+    SAME_ACCOUNT,
+    INVALID_CREDENTIALS,
+    RATE_LIMITED,
+    DUPLICATE_REQUEST
+}
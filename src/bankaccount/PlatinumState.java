@@ -2,19 +2,28 @@ package bankaccount;
 
 public class PlatinumState extends CustomerState {
 
+    public static final PlatinumState INSTANCE = new PlatinumState();
+
+    private PlatinumState() {
+    }
+
+    @Override
+    public String getLevel() {
+        return "Platinum";
+    }
+
+    @Override
+    public long getPurchaseFee() {
+        return 0;
+    }
+
+    @Override
+    public int getInterestRate() {
+        return 250;
+    }
+
     @Override
-    public void purchaseOnline(double purchaseAmount) {
-        if (purchaseAmount >= 50) {
-            double fee = 0;
-            if (context.getBalance() >= purchaseAmount + fee) {
-                context.setBalance(context.getBalance() - (purchaseAmount + fee));
-                context.updateBalanceLabel();
-                context.updateLevel();
-            } else {
-                context.getInsufficientFundsLabel().setText("Insufficient Funds");
-            }
-        } else {
-            context.getInsufficientFundsLabel().setText("Purchase must be at least $50!");
-        }
+    public long getMaintenanceFee() {
+        return 0;
     }
 }
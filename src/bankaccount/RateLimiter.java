@@ -0,0 +1,55 @@
+package bankaccount;
+
+/**
+ * Per-account token bucket: each account may make up to {@code burst} operations at once, and
+ * regains the right to one more at a steady {@code ratePerSecond}.
+ *
+ * The bucket of an account is kept in the account itself as a single timestamp, the time at
+ * which its bucket will be full again (the generic cell rate algorithm), so checking it costs
+ * a comparison and an addition, without allocation or locking of its own. The caller holds the
+ * account's lock stripe, which already guards the account. Buckets are in memory only: an
+ * account loaded again after being evicted from the cache starts with a full bucket.
+ *
+ * This class is immutable.
+ */
+public final class RateLimiter {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    // Timestamps are kept relative to this, so that a bucket time of 0 is always in the past.
+    private final long originNanos = System.nanoTime();
+
+    /**
+     * Creates a limiter.
+     *
+     * @param ratePerSecond The sustained number of operations allowed per second.
+     * @param burst The number of operations allowed at once after a quiet period.
+     * @throws IllegalArgumentException if either argument is not positive.
+     */
+    public RateLimiter(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1, (long) (1e9 / ratePerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+    }
+
+    /**
+     * Takes a token from an account's bucket if it has one.
+     *
+     * @param account The account making the operation.
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return True if the operation is allowed, false if the account must wait.
+     */
+    // Modifies: account
+    // Requires: The caller holds the lock stripe for the account's username.
+    public boolean tryAcquire(Account account, long nowNanos) {
+        long now = nowNanos - originNanos;
+        long full = Math.max(account.getRateLimitTime(), now);
+        if (full - now > toleranceNanos) {
+            return false;
+        }
+        account.setRateLimitTime(full + intervalNanos);
+        return true;
+    }
+}
@@ -0,0 +1,150 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+/**
+ * The login, customer and manager screens of the application, each parsed from its FXML once
+ * and then kept with its scene and controller for the life of the application. Switching
+ * users sets the screen's scene on the primary stage and rebinds the controller of the screen
+ * to the new session, instead of parsing the FXML again and opening a new stage, so it costs
+ * no more than laying out the screen. The login scene is 600 by 400; the others take the
+ * preferred size of their screen.
+ *
+ * The customer and manager screens are parsed on first use, or ahead of time by
+ * {@link #preload()}, which the application runs once the login screen is showing.
+ *
+ * This class is not thread-safe: it is used on the JavaFX application thread only.
+ */
+public final class Screens {
+
+    private static final double LOGIN_WIDTH = 600;
+    private static final double LOGIN_HEIGHT = 400;
+    // Sizes a scene to its root's preferred size.
+    private static final double PREFERRED_SIZE = -1;
+
+    // A parsed screen, its scene and its controller.
+    private static final class View<C> {
+        final Scene scene;
+        final C controller;
+
+        View(Scene scene, C controller) {
+            this.scene = scene;
+            this.controller = controller;
+        }
+    }
+
+    private final Stage stage;
+    private final View<LoginController> login;
+    private View<CustomerController> customer;
+    private View<ManagerController> manager;
+
+    /**
+     * Parses the login screen and shows it in the stage.
+     *
+     * @param stage The primary stage, which shows every screen.
+     * @throws IOException if the login screen could not be parsed.
+     */
+    public Screens(Stage stage) throws IOException {
+        this.stage = stage;
+        this.login = load("login.fxml", LOGIN_WIDTH, LOGIN_HEIGHT);
+        login.controller.setStage(stage);
+        login.controller.setScreens(this);
+        stage.setScene(login.scene);
+    }
+
+    private static <C> View<C> load(String fxml, double width, double height) throws IOException {
+        FXMLLoader loader = new FXMLLoader(Screens.class.getResource(fxml));
+        Parent root = loader.load();
+        return new View<>(new Scene(root, width, height), loader.getController());
+    }
+
+    /**
+     * Parses the customer and manager screens if they have not been parsed yet.
+     *
+     * @throws UncheckedIOException if a screen could not be parsed.
+     */
+    public void preload() {
+        customer();
+        manager();
+    }
+
+    private View<CustomerController> customer() {
+        if (customer == null) {
+            try {
+                customer = load("customer.fxml", PREFERRED_SIZE, PREFERRED_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            customer.controller.setStage(stage);
+            customer.controller.setScreens(this);
+        }
+        return customer;
+    }
+
+    private View<ManagerController> manager() {
+        if (manager == null) {
+            try {
+                manager = load("manager.fxml", PREFERRED_SIZE, PREFERRED_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            manager.controller.setStage(stage);
+            manager.controller.setScreens(this);
+        }
+        return manager;
+    }
+
+    // Effects: Shows scene in the stage, resizing the stage to it.
+    // Modifies: stage
+    private void show(Scene scene) {
+        stage.setScene(scene);
+        stage.sizeToScene();
+        stage.show();
+    }
+
+    /**
+     * Ends the session of the screen being shown, if any, and shows the login screen cleared.
+     */
+    // Modifies: stage, the controllers
+    public void showLogin() {
+        if (customer != null) {
+            customer.controller.endSession();
+        }
+        if (manager != null) {
+            manager.controller.endSession();
+        }
+        login.controller.reset();
+        show(login.scene);
+    }
+
+    /**
+     * Shows the customer screen bound to a customer who has just logged in, clearing the
+     * credentials from the login screen.
+     *
+     * @param username The username of the customer.
+     */
+    // Modifies: stage, the customer controller
+    public void showCustomer(String username) {
+        View<CustomerController> view = customer();
+        view.controller.startSession(username);
+        login.controller.reset();
+        show(view.scene);
+    }
+
+    /**
+     * Shows the manager screen for a manager who has just logged in, clearing the credentials
+     * from the login screen.
+     */
+    // Modifies: stage, the manager controller
+    public void showManager() {
+        View<ManagerController> view = manager();
+        view.controller.startSession();
+        login.controller.reset();
+        show(view.scene);
+    }
+}
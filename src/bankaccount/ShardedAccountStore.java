@@ -0,0 +1,379 @@
+package bankaccount;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Splits the accounts between several {@link MappedAccountStore} shards by a hash of the
+ * username, each with its own files, lock and writer thread. Operations on accounts in
+ * different shards never wait for each other, even while one shard is growing its file or
+ * rebuilding its index, and a flush forces every shard to disk at once on the shards' writer
+ * threads, so that the shards can be spread over several disks and their number grown with
+ * the cores and disks available.
+ *
+ * The shards of a layout of {@code n} shards live in {@code shards-<n>/shard-<i>}, and the file
+ * {@code shards} names the layout in use. Opening the store with a different shard count
+ * copies every account into a new layout, which only becomes the one in use once it is
+ * complete and on disk; an unsharded {@link MappedAccountStore} in the same directory is
+ * moved into shards the same way. An interrupted copy is discarded and started again.
+ *
+ * Batch creations and deletions are atomic within each shard, not across shards.
+ *
+ * This class is thread-safe.
+ */
+public final class ShardedAccountStore implements AccountStore {
+
+    private static final String LAYOUT_FILE = "shards";
+
+    private final MappedAccountStore[] shards;
+    private final ExecutorService[] writers;
+
+    /**
+     * Opens the store in the given directory, creating it or changing its shard count if
+     * needed.
+     *
+     * @param directory The directory holding the shards.
+     * @param count The number of shards.
+     * @throws IOException if the shards could not be opened or the accounts could not be copied.
+     * @throws IllegalArgumentException if count is not positive.
+     */
+    public ShardedAccountStore(Path directory, int count) throws IOException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        Files.createDirectories(directory);
+        Path layoutFile = directory.resolve(LAYOUT_FILE);
+        int current = Files.exists(layoutFile)
+                ? Integer.parseInt(new String(Files.readAllBytes(layoutFile), StandardCharsets.UTF_8).trim()) : 0;
+        if (current != count) {
+            Path target = layout(directory, count);
+            if (Files.exists(target)) {
+                deleteTree(target);
+            }
+            MappedAccountStore[] opened = open(target, count);
+            try {
+                if (current > 0) {
+                    MappedAccountStore[] old = open(layout(directory, current), current);
+                    try {
+                        copy(old, opened);
+                    } finally {
+                        closeAll(old);
+                    }
+                } else if (Files.exists(directory.resolve("accounts.dat"))) {
+                    try (MappedAccountStore unsharded = new MappedAccountStore(directory)) {
+                        copy(new MappedAccountStore[] {unsharded}, opened);
+                    }
+                }
+            } finally {
+                closeAll(opened);
+            }
+            Path partial = directory.resolve(LAYOUT_FILE + ".tmp");
+            Files.write(partial, String.valueOf(count).getBytes(StandardCharsets.UTF_8));
+            Files.move(partial, layoutFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (current > 0) {
+                deleteTree(layout(directory, current));
+            } else {
+                Files.deleteIfExists(directory.resolve("accounts.dat"));
+                Files.deleteIfExists(directory.resolve("accounts.idx"));
+            }
+        }
+        this.shards = open(layout(directory, count), count);
+        this.writers = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            String name = "account-shard-writer-" + i;
+            writers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static Path layout(Path directory, int count) {
+        return directory.resolve("shards-" + count);
+    }
+
+    private static MappedAccountStore[] open(Path layout, int count) throws IOException {
+        MappedAccountStore[] opened = new MappedAccountStore[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                opened[i] = new MappedAccountStore(layout.resolve("shard-" + i));
+            }
+        } catch (IOException e) {
+            closeAll(opened);
+            throw e;
+        }
+        return opened;
+    }
+
+    private static void closeAll(MappedAccountStore[] stores) throws IOException {
+        IOException failure = null;
+        for (MappedAccountStore store : stores) {
+            if (store == null) {
+                continue;
+            }
+            try {
+                store.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Effects: Copies every account of the sources into the shard of the targets it hashes to
+    //          and forces the targets to disk.
+    private static void copy(MappedAccountStore[] sources, MappedAccountStore[] targets) throws IOException {
+        for (MappedAccountStore source : sources) {
+            try {
+                source.forEachAccount((account, credential) -> {
+                    try {
+                        targets[indexFor(account.getUsername(), targets.length)].createHashed(account, credential);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        for (MappedAccountStore target : targets) {
+            target.flush();
+        }
+    }
+
+    private static void deleteTree(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    deleteTree(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    // Effects: Returns the shard of a username: a strong mix of its hash, whose high bits pick
+    //          the shard so that the choice is independent of the shard's own index hashing.
+    static int indexFor(String username, int count) {
+        int h = username.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (int) (((h & 0xFFFFFFFFL) * count) >>> 32);
+    }
+
+    private MappedAccountStore shardFor(String username) {
+        return shards[indexFor(username, shards.length)];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the number of accounts in the store.
+     *
+     * @return The number of accounts in all shards.
+     */
+    public int size() {
+        int size = 0;
+        for (MappedAccountStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Account load(String username) throws IOException {
+        return shardFor(username).load(username);
+    }
+
+    @Override
+    public boolean exists(String username) {
+        return shardFor(username).exists(username);
+    }
+
+    /**
+     * Adds an account whose password has already been hashed, to the shard it belongs to.
+     *
+     * @param account The account to add.
+     * @param credential The hashed password.
+     * @throws IOException if the account already exists or the username is too long.
+     */
+    @Override
+    public void createHashed(Account account, Credentials.Hashed credential) throws IOException {
+        shardFor(account.getUsername()).createHashed(account, credential);
+    }
+
+    @Override
+    public boolean checkPassword(String username, String password) throws IOException {
+        return shardFor(username).checkPassword(username, password);
+    }
+
+    /**
+     * Splits the batch by shard and creates each shard's part as one transaction of that
+     * shard, on the shards' writer threads at once.
+     */
+    @Override
+    public boolean[] createAllHashed(List<Account> accounts, List<Credentials.Hashed> credentials) throws IOException {
+        List<List<Integer>> positions = partition(accounts.size(), i -> accounts.get(i).getUsername());
+        boolean[] created = new boolean[accounts.size()];
+        onWriters(shard -> {
+            List<Integer> mine = positions.get(shard);
+            List<Account> part = new ArrayList<>(mine.size());
+            List<Credentials.Hashed> partCredentials = new ArrayList<>(mine.size());
+            for (int i : mine) {
+                part.add(accounts.get(i));
+                partCredentials.add(credentials.get(i));
+            }
+            boolean[] partCreated = part.isEmpty() ? new boolean[0] : shards[shard].createAllHashed(part, partCredentials);
+            for (int j = 0; j < partCreated.length; j++) {
+                created[mine.get(j)] = partCreated[j];
+            }
+        });
+        return created;
+    }
+
+    @Override
+    public boolean delete(String username) throws IOException {
+        return shardFor(username).delete(username);
+    }
+
+    @Override
+    public boolean[] deleteAll(List<String> usernames) throws IOException {
+        List<List<Integer>> positions = partition(usernames.size(), usernames::get);
+        boolean[] deleted = new boolean[usernames.size()];
+        onWriters(shard -> {
+            List<Integer> mine = positions.get(shard);
+            List<String> part = new ArrayList<>(mine.size());
+            for (int i : mine) {
+                part.add(usernames.get(i));
+            }
+            boolean[] partDeleted = part.isEmpty() ? new boolean[0] : shards[shard].deleteAll(part);
+            for (int j = 0; j < partDeleted.length; j++) {
+                deleted[mine.get(j)] = partDeleted[j];
+            }
+        });
+        return deleted;
+    }
+
+    @Override
+    public void saveBalance(String username, long balance, int tier) throws IOException {
+        shardFor(username).saveBalance(username, balance, tier);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) {
+        for (MappedAccountStore shard : shards) {
+            shard.forEachUsername(action);
+        }
+    }
+
+    /**
+     * Folds every shard in parallel, each shard itself in parallel chunks, and merges the
+     * results.
+     */
+    @Override
+    public <R> R reduce(Supplier<R> supplier, BiConsumer<R, Record> accumulator, BinaryOperator<R> combiner) {
+        return Arrays.stream(shards).parallel()
+                .map(shard -> shard.reduce(supplier, accumulator, combiner))
+                .reduce(combiner).orElseGet(supplier);
+    }
+
+    /**
+     * Forces every shard to disk at once, each on its own writer thread, and returns once all
+     * are done.
+     *
+     * @throws IOException if a shard could not be flushed.
+     */
+    @Override
+    public void flush() throws IOException {
+        onWriters(shard -> shards[shard].flush());
+    }
+
+    @Override
+    public void flush(String username) throws IOException {
+        shardFor(username).flush(username);
+    }
+
+    // An action on one shard, run on that shard's writer thread.
+    private interface ShardAction {
+        void run(int shard) throws IOException;
+    }
+
+    // Effects: Runs the action for every shard on the shard's writer thread and waits for all
+    //          of them, rethrowing the first failure.
+    private void onWriters(ShardAction action) throws IOException {
+        List<Future<Void>> pending = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int shard = i;
+            pending.add(writers[i].submit(() -> {
+                action.run(shard);
+                return null;
+            }));
+        }
+        IOException failure = null;
+        for (Future<Void> future : pending) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the shards", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Effects: Returns, for each shard, the positions of the usernames that belong to it.
+    private List<List<Integer>> partition(int size, IntFunction<String> username) {
+        List<List<Integer>> positions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            positions.get(indexFor(username.apply(i), shards.length)).add(i);
+        }
+        return positions;
+    }
+
+    /**
+     * Stops the writer threads and closes every shard.
+     *
+     * @throws IOException if a shard could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        for (ExecutorService writer : writers) {
+            writer.shutdown();
+        }
+        closeAll(shards);
+    }
+}
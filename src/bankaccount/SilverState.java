@@ -2,19 +2,28 @@ package bankaccount;
 
 public class SilverState extends CustomerState {
 
+    public static final SilverState INSTANCE = new SilverState();
+
+    private SilverState() {
+    }
+
+    @Override
+    public String getLevel() {
+        return "Silver";
+    }
+
+    @Override
+    public long getPurchaseFee() {
+        return Money.of(30);
+    }
+
+    @Override
+    public int getInterestRate() {
+        return 50;
+    }
+
     @Override
-    public void purchaseOnline(double purchaseAmount) {
-        if (purchaseAmount >= 50) {
-            double fee = 30;
-            if (context.getBalance() >= purchaseAmount + fee) {
-                context.setBalance(context.getBalance() - (purchaseAmount + fee));
-                context.updateBalanceLabel();
-                context.updateLevel();
-            } else {
-                context.getInsufficientFundsLabel().setText("Insufficient Funds");
-            }
-        } else {
-            context.getInsufficientFundsLabel().setText("Purchase must be at least $50!");
-        }
+    public long getMaintenanceFee() {
+        return Money.of(5);
     }
 }
@@ -0,0 +1,205 @@
+package bankaccount;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary point-in-time image of every account, written by
+ * {@link AccountEngine#snapshot(Path)}.
+ *
+ * A snapshot file ({@code snapshot-<millis>.snap}) holds a header with the time of the cut and
+ * the last journal sequence number it reflects, then one record per account (username, role,
+ * tier index, balance) and finally the record count and a CRC32 of everything before it. Files
+ * are written under a temporary name and renamed once complete, so a snapshot that exists is
+ * whole.
+ *
+ * Usage: {@code java bankaccount.SnapshotFile <snapshot.snap>} prints a summary of a snapshot.
+ */
+public final class SnapshotFile {
+
+    private static final int MAGIC = 0x42415331; // "BAS1"
+    private static final int VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    /**
+     * Streams accounts into a new snapshot file.
+     *
+     * This class is not thread-safe.
+     */
+    public static final class Writer implements Closeable {
+        private final Path target;
+        private final Path partial;
+        private final FileOutputStream file;
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private long count;
+        private boolean committed;
+
+        Writer(Path directory, long cutMillis, long cutSequence) throws IOException {
+            Files.createDirectories(directory);
+            target = directory.resolve(String.format("%s%013d%s", PREFIX, cutMillis, SUFFIX));
+            partial = directory.resolve(target.getFileName() + ".tmp");
+            file = new FileOutputStream(partial.toFile());
+            checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(cutMillis);
+            out.writeLong(cutSequence);
+        }
+
+        // Modifies: this file
+        void write(String username, String role, int tier, long balance) throws IOException {
+            byte[] name = username.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(1);
+            out.writeShort(name.length);
+            out.write(name);
+            out.writeBoolean("customer".equals(role));
+            out.writeByte(tier);
+            out.writeLong(balance);
+            count++;
+        }
+
+        // Effects: Ends the file, forces it to disk and gives it its final name.
+        Path commit() throws IOException {
+            out.writeByte(0);
+            out.writeLong(count);
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            return target;
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                Files.deleteIfExists(partial);
+            }
+        }
+    }
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Reads every account in a snapshot.
+     *
+     * @param snapshot The snapshot file.
+     * @param consumer Receives each account; its tier is set from the file.
+     * @return The last journal sequence number reflected by the snapshot.
+     * @throws IOException if the file could not be read, is not a snapshot or is corrupt.
+     */
+    public static long read(Path snapshot, Consumer<Account> consumer) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16), new CRC32());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognized snapshot " + snapshot);
+            }
+            in.readLong();
+            long cutSequence = in.readLong();
+            long count = 0;
+            byte[] name = new byte[MappedAccountStore.MAX_NAME_LENGTH];
+            while (in.readByte() == 1) {
+                int length = in.readUnsignedShort();
+                if (length > name.length) {
+                    name = new byte[length];
+                }
+                in.readFully(name, 0, length);
+                String role = in.readBoolean() ? "customer" : "manager";
+                int tier = in.readUnsignedByte();
+                Account account = new Account(new String(name, 0, length, StandardCharsets.UTF_8), role, in.readLong());
+                account.setTier(tier);
+                consumer.accept(account);
+                count++;
+            }
+            if (in.readLong() != count) {
+                throw new IOException("Snapshot record count mismatch in " + snapshot);
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Snapshot checksum mismatch in " + snapshot);
+            }
+            return cutSequence;
+        } catch (EOFException e) {
+            throw new IOException("Truncated snapshot " + snapshot, e);
+        }
+    }
+
+    /**
+     * Returns the snapshots in a directory, oldest first.
+     *
+     * @param directory The directory holding the snapshots.
+     * @return The snapshot files; empty if the directory does not exist.
+     * @throws IOException if the directory could not be listed.
+     */
+    public static List<Path> list(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                snapshots.add(file);
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    /**
+     * Deletes all but the newest snapshots in a directory.
+     *
+     * @param directory The directory holding the snapshots.
+     * @param keep The number of snapshots to keep.
+     * @throws IOException if a snapshot could not be deleted.
+     */
+    public static void prune(Path directory, int keep) throws IOException {
+        List<Path> snapshots = list(directory);
+        for (int i = 0; i < snapshots.size() - keep; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java bankaccount.SnapshotFile <snapshot.snap>");
+            System.exit(2);
+        }
+        long[] totals = new long[2];
+        long cutSequence = read(Paths.get(args[0]), account -> {
+            totals[0]++;
+            totals[1] += account.getBalance();
+        });
+        System.out.printf("%,d accounts, total balance $%s, up to journal sequence %d%n",
+                totals[0], Money.format(totals[1]), cutSequence);
+    }
+}
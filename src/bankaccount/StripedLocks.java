@@ -0,0 +1,66 @@
+package bankaccount;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared by many keys. A key always maps to the same stripe, so holding
+ * its stripe serializes every operation on that key while keys on other stripes proceed in
+ * parallel, without allocating a lock per account.
+ *
+ * This class is thread-safe.
+ */
+public class StripedLocks {
+
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * Creates the locks.
+     *
+     * @param stripes The number of stripes; rounded up to a power of two.
+     */
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the stripe number of a key. Callers that need two stripes at once must lock the
+     * lower number first.
+     *
+     * @param key The key.
+     * @return The stripe number.
+     */
+    public int indexFor(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (locks.length - 1);
+    }
+
+    /**
+     * Returns the lock guarding a key.
+     *
+     * @param key The key.
+     * @return The lock for the key's stripe.
+     */
+    public ReentrantLock forKey(String key) {
+        return locks[indexFor(key)];
+    }
+
+    /**
+     * Returns the lock of a stripe.
+     *
+     * @param index The stripe number.
+     * @return The lock.
+     */
+    public ReentrantLock get(int index) {
+        return locks[index];
+    }
+
+    public int size() {
+        return locks.length;
+    }
+}
@@ -0,0 +1,20 @@
+package bankaccount;
+
+/**
+ * Receives tier transitions from the {@link AccountEngine}.
+ *
+ * Listeners are called on the thread that changed the balance while it still holds the
+ * account's lock stripe, so they must be quick and must not call back into the engine.
+ */
+public interface TierListener {
+
+    /**
+     * Called when a balance change moves an account into a different tier.
+     *
+     * @param username The username of the account.
+     * @param from The previous tier.
+     * @param to The new tier.
+     * @param balance The balance that caused the transition, in cents.
+     */
+    void tierChanged(String username, CustomerState from, CustomerState to, long balance);
+}
@@ -0,0 +1,128 @@
+package bankaccount;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps balances to tiers through a table of ascending thresholds. A balance belongs to the
+ * tier with the highest threshold at or below it; the first tier also covers every balance
+ * below its threshold.
+ *
+ * This class is immutable.
+ */
+public final class TierTable {
+
+    private static final CustomerState[] KNOWN = {SilverState.INSTANCE, GoldState.INSTANCE, PlatinumState.INSTANCE};
+
+    private final long[] thresholds;
+    private final CustomerState[] states;
+
+    /**
+     * Creates a table.
+     *
+     * @param thresholds The lowest balance of each tier, in cents, in ascending order.
+     * @param states The tier for each threshold.
+     * @throws IllegalArgumentException if the arrays differ in length, are empty or the
+     *         thresholds are not strictly ascending.
+     */
+    public TierTable(long[] thresholds, CustomerState[] states) {
+        if (thresholds.length == 0 || thresholds.length != states.length) {
+            throw new IllegalArgumentException("Need one threshold per tier");
+        }
+        for (int i = 1; i < thresholds.length; i++) {
+            if (thresholds[i] <= thresholds[i - 1]) {
+                throw new IllegalArgumentException("Tier thresholds must be ascending");
+            }
+        }
+        this.thresholds = thresholds.clone();
+        this.states = states.clone();
+    }
+
+    /**
+     * Returns the standard table: Silver below $10000, Gold below $20000, Platinum above.
+     *
+     * @return The default table.
+     */
+    public static TierTable defaults() {
+        return new TierTable(new long[] {0, AccountEngine.GOLD_THRESHOLD, AccountEngine.PLATINUM_THRESHOLD},
+                new CustomerState[] {SilverState.INSTANCE, GoldState.INSTANCE, PlatinumState.INSTANCE});
+    }
+
+    /**
+     * Parses a table written as {@code Level:dollars} pairs, e.g.
+     * {@code "Silver:0,Gold:10000,Platinum:20000"}.
+     *
+     * @param spec The table specification.
+     * @return The parsed table.
+     * @throws IllegalArgumentException if a level is unknown or the thresholds are invalid.
+     */
+    public static TierTable parse(String spec) {
+        List<Long> thresholds = new ArrayList<>();
+        List<CustomerState> states = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected Level:amount but got " + entry);
+            }
+            CustomerState state = null;
+            for (CustomerState known : KNOWN) {
+                if (known.getLevel().equalsIgnoreCase(parts[0].trim())) {
+                    state = known;
+                }
+            }
+            if (state == null) {
+                throw new IllegalArgumentException("Unknown level " + parts[0]);
+            }
+            states.add(state);
+            thresholds.add(Money.parse(parts[1].trim()));
+        }
+        long[] limits = new long[thresholds.size()];
+        for (int i = 0; i < limits.length; i++) {
+            limits[i] = thresholds.get(i);
+        }
+        return new TierTable(limits, states.toArray(new CustomerState[0]));
+    }
+
+    /**
+     * Returns the position in the table of the tier a balance belongs to.
+     *
+     * @param balance The balance, in cents.
+     * @return The tier index.
+     */
+    public int indexFor(long balance) {
+        int index = thresholds.length - 1;
+        while (index > 0 && balance < thresholds[index]) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Returns whether a balance still belongs to the tier at an index, i.e. whether the tier
+     * has to be recomputed at all.
+     *
+     * @param index The current tier index.
+     * @param balance The new balance, in cents.
+     * @return True if the balance is within the tier's bounds.
+     */
+    public boolean contains(int index, long balance) {
+        return (index == 0 || balance >= thresholds[index])
+                && (index == thresholds.length - 1 || balance < thresholds[index + 1]);
+    }
+
+    public CustomerState state(int index) {
+        return states[index];
+    }
+
+    public CustomerState stateFor(long balance) {
+        return states[indexFor(balance)];
+    }
+
+    public long threshold(int index) {
+        return thresholds[index];
+    }
+
+    public int size() {
+        return states.length;
+    }
+}
@@ -0,0 +1,643 @@
+package bankaccount;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Permanent per-account transaction history, copied from the {@link TransactionJournal} so that
+ * it outlives the journal segments deleted at checkpoints.
+ *
+ * Records are appended to a single file ({@code history.log}) and each one points back to the
+ * previous record of the same account, so an account's history is read newest first, a page
+ * at a time, without reading the rest of the file or holding it in memory. Only the position
+ * of each account's newest record is kept in memory; it is saved to {@code history.idx} now and
+ * then and rebuilt from the records after that on open. Deleting an account ends its history,
+ * and an account created later under the same username starts a new one. The fees charged are
+ * totalled the same way by the tier recorded with each fee, for reports, and the time each
+ * account was created is kept with its newest record, for monthly accruals. A history written
+ * before fees recorded their tier is upgraded when it is opened, its fees left unattributed.
+ *
+ * Appends are not forced to disk one by one: the journal is the durable copy, records up to
+ * the last sequence number already held are skipped, and {@link AccountEngine} copies the
+ * journal records of a crashed run again during recovery and forces the history before it
+ * deletes any journal segment.
+ *
+ * This class is thread-safe.
+ */
+public class TransactionHistory implements Closeable {
+
+    /** The cursor of the newest record of an account. */
+    public static final long NEWEST = Long.MAX_VALUE;
+
+    private static final int MAGIC = 0x42414831; // "BAH1"
+    private static final int INDEX_MAGIC = 0x42414931; // "BAI1"
+    private static final int VERSION = 2;
+    // Records without a tier; upgraded on open.
+    private static final int UNTIERED_VERSION = 1;
+    private static final int INDEX_VERSION = 4;
+    private static final int HEADER_SIZE = 8;
+    // prev, number, sequence, timestamp, type, tier, amount, balanceAfter, nameLength
+    private static final int FIXED_BODY_SIZE = 8 + 8 + 8 + 8 + 1 + 1 + 8 + 8 + 2;
+    private static final int UNTIERED_BODY_SIZE = FIXED_BODY_SIZE - 1;
+    static final long NONE = -1;
+    // Bytes appended after which flush() also saves the index, bounding the scan on open.
+    private static final long INDEX_INTERVAL = 64L * 1024 * 1024;
+
+    /**
+     * A single transaction in an account's history.
+     *
+     * This class is immutable.
+     */
+    public static class Entry {
+        private final long number;
+        private final long timestamp;
+        private final TransactionType type;
+        private final long amount;
+        private final long balanceAfter;
+
+        Entry(long number, long timestamp, TransactionType type, long amount, long balanceAfter) {
+            this.number = number;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.amount = amount;
+            this.balanceAfter = balanceAfter;
+        }
+
+        /**
+         * Returns the position of this transaction in the account's history, starting at 1
+         * with the creation of the account.
+         *
+         * @return The position, which is also the number of transactions up to this one.
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public TransactionType getType() {
+            return type;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public long getBalanceAfter() {
+            return balanceAfter;
+        }
+    }
+
+    /**
+     * Consecutive transactions of one account, newest first, and where the next older page
+     * starts.
+     *
+     * This class is immutable.
+     */
+    public static class Page {
+        private final List<Entry> entries;
+        private final long nextCursor;
+
+        Page(List<Entry> entries, long nextCursor) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Returns the cursor to pass to {@link TransactionHistory#page} for the next older page.
+         *
+         * @return The cursor; only meaningful if {@link #hasMore()}.
+         */
+        public long getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean hasMore() {
+            return nextCursor != NONE;
+        }
+    }
+
+    static final Page EMPTY = new Page(new ArrayList<>(), NONE);
+
+    // The newest record of an account, and the time of its CREATE record (0 if not seen).
+    private static final class Head {
+        final long offset;
+        final long number;
+        final long created;
+
+        Head(long offset, long number, long created) {
+            this.offset = offset;
+            this.number = number;
+            this.created = created;
+        }
+    }
+
+    private final Path logFile;
+    private final Path indexFile;
+    private final FileChannel channel;
+    private final Map<String, Head> heads = new ConcurrentHashMap<>();
+    // Total of the FEE and MAINTENANCE_FEE records by the tier recorded with them; guarded by lock.
+    private final Map<Integer, Long> feeRevenue = new HashMap<>();
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private volatile long end;
+    private long lastSequence;
+    private long indexedEnd;
+
+    /**
+     * Opens the history in the given directory, creating it if it does not exist.
+     *
+     * @param directory The directory holding the history files.
+     * @throws IOException if the history could not be opened or is not a history.
+     */
+    public TransactionHistory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        logFile = directory.resolve("history.log");
+        indexFile = directory.resolve("history.idx");
+        upgrade(logFile, indexFile);
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                while (header.hasRemaining()) {
+                    channel.write(header, HEADER_SIZE - header.remaining());
+                }
+                channel.force(true);
+                end = HEADER_SIZE;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Unrecognized history " + logFile);
+                }
+                end = scan(loadIndex());
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last journal record in the history.
+     *
+     * @return The last sequence number, or 0 if the history is empty.
+     */
+    public long lastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Appends journal records to the histories of their accounts, skipping those whose
+     * sequence numbers are not above {@link #lastSequence()}.
+     *
+     * @param entries The records, in sequence order.
+     * @throws IOException if the history could not be written.
+     */
+    public void append(List<TransactionJournal.Entry> entries) throws IOException {
+        synchronized (lock) {
+            List<byte[]> names = new ArrayList<>(entries.size());
+            int size = 0;
+            for (TransactionJournal.Entry entry : entries) {
+                byte[] name = entry.getUsername().getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                size += 4 + FIXED_BODY_SIZE + name.length + 4;
+            }
+            ByteBuffer batch = ByteBuffer.allocate(size);
+            // Heads changed by this batch; a null value removes the head.
+            Map<String, Head> changed = new HashMap<>();
+            long sequence = lastSequence;
+            for (int i = 0; i < entries.size(); i++) {
+                TransactionJournal.Entry entry = entries.get(i);
+                if (entry.getSequence() <= sequence) {
+                    continue;
+                }
+                sequence = entry.getSequence();
+                if (entry.getType() == TransactionType.ACCRUAL) {
+                    continue;
+                }
+                String username = entry.getUsername();
+                Head head = changed.containsKey(username) ? changed.get(username) : heads.get(username);
+                if (entry.getType() == TransactionType.CREATE) {
+                    head = null;
+                }
+                long offset = end + batch.position();
+                long number = head == null ? 1 : head.number + 1;
+                encode(batch, head == null ? NONE : head.offset, number, entry, names.get(i));
+                long created = head != null ? head.created
+                        : entry.getType() == TransactionType.CREATE ? entry.getTimestamp() : 0;
+                changed.put(username, entry.getType() == TransactionType.DELETE ? null : new Head(offset, number, created));
+                if (isFee(entry.getType())) {
+                    feeRevenue.merge(entry.getTier(), entry.getAmount(), Long::sum);
+                }
+            }
+            batch.flip();
+            long position = end;
+            while (batch.hasRemaining()) {
+                position += channel.write(batch, position);
+            }
+            for (Map.Entry<String, Head> head : changed.entrySet()) {
+                if (head.getValue() == null) {
+                    heads.remove(head.getKey());
+                } else {
+                    heads.put(head.getKey(), head.getValue());
+                }
+            }
+            end = position;
+            lastSequence = sequence;
+        }
+    }
+
+    // Effects: Writes one record to batch.
+    // Modifies: batch, crc
+    // Requires: The caller holds lock.
+    private void encode(ByteBuffer batch, long prev, long number, TransactionJournal.Entry entry, byte[] name) {
+        int start = batch.position();
+        batch.putInt(FIXED_BODY_SIZE + name.length);
+        batch.putLong(prev);
+        batch.putLong(number);
+        batch.putLong(entry.getSequence());
+        batch.putLong(entry.getTimestamp());
+        batch.put((byte) entry.getType().ordinal());
+        batch.put((byte) entry.getTier());
+        batch.putLong(entry.getAmount());
+        batch.putLong(entry.getBalanceAfter());
+        batch.putShort((short) name.length);
+        batch.put(name);
+        crc.reset();
+        crc.update(batch.array(), start + 4, FIXED_BODY_SIZE + name.length);
+        batch.putInt((int) crc.getValue());
+    }
+
+    private static boolean isFee(TransactionType type) {
+        return type == TransactionType.FEE || type == TransactionType.MAINTENANCE_FEE;
+    }
+
+    /**
+     * Returns the total of every fee charged, purchase and maintenance fees alike, grouped by
+     * the tier each fee was charged under.
+     *
+     * @return The total charged, in cents, by tier index; fees recorded without their tier are
+     *         under {@link TransactionJournal#NO_TIER}.
+     */
+    public Map<Integer, Long> feeRevenue() {
+        synchronized (lock) {
+            return new HashMap<>(feeRevenue);
+        }
+    }
+
+    /**
+     * Returns the number of transactions in an account's history.
+     *
+     * @param username The username of the account.
+     * @return The number of transactions, or 0 if the account has no history.
+     */
+    public long count(String username) {
+        Head head = heads.get(username);
+        return head == null ? 0 : head.number;
+    }
+
+    /**
+     * Returns when an account was created.
+     *
+     * @param username The username of the account.
+     * @return The time of its CREATE record in milliseconds since the epoch, or 0 if the
+     *         account has no history or its history does not start with its creation, e.g. an
+     *         account imported from legacy files.
+     */
+    public long createdMillis(String username) {
+        Head head = heads.get(username);
+        return head == null ? 0 : head.created;
+    }
+
+    /**
+     * Reads a page of an account's history, newest first.
+     *
+     * @param username The username of the account.
+     * @param cursor {@link #NEWEST}, or a cursor returned by {@link Page#getNextCursor()} or
+     *        {@link #skip} for the same account.
+     * @param limit The maximum number of transactions to read.
+     * @return The transactions, empty if the account has no history.
+     * @throws IOException if the history could not be read.
+     */
+    public Page page(String username, long cursor, int limit) throws IOException {
+        long offset = resolve(username, cursor);
+        List<Entry> entries = new ArrayList<>(Math.min(limit, 1024));
+        ByteBuffer record = ByteBuffer.allocate(4 + FIXED_BODY_SIZE);
+        TransactionType[] types = TransactionType.values();
+        while (offset != NONE && entries.size() < limit) {
+            record.clear();
+            read(record, offset);
+            long prev = record.getLong(4);
+            entries.add(new Entry(record.getLong(12), record.getLong(28), types[record.get(36)],
+                    record.getLong(38), record.getLong(46)));
+            offset = prev;
+        }
+        return new Page(entries, offset);
+    }
+
+    /**
+     * Moves a cursor to older transactions without reading them.
+     *
+     * @param username The username of the account.
+     * @param cursor {@link #NEWEST}, or a cursor for the same account.
+     * @param count The number of transactions to skip.
+     * @return The cursor of the transaction count places older than the cursor's; a cursor
+     *         that reads nothing if there are not that many.
+     * @throws IOException if the history could not be read.
+     */
+    public long skip(String username, long cursor, long count) throws IOException {
+        long offset = resolve(username, cursor);
+        ByteBuffer prev = ByteBuffer.allocate(8);
+        for (long i = 0; i < count && offset != NONE; i++) {
+            prev.clear();
+            read(prev, offset + 4);
+            offset = prev.getLong(0);
+        }
+        return offset;
+    }
+
+    private long resolve(String username, long cursor) {
+        if (cursor != NEWEST) {
+            return cursor;
+        }
+        Head head = heads.get(username);
+        return head == null ? NONE : head.offset;
+    }
+
+    // Effects: Fills buffer from the log starting at position.
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("History ends early at " + position);
+            }
+        }
+    }
+
+    /**
+     * Forces appended records to disk, and saves the index if many records were appended
+     * since it was last saved.
+     *
+     * @throws IOException if the history could not be forced or the index written.
+     */
+    public void flush() throws IOException {
+        channel.force(false);
+        if (end - indexedEnd >= INDEX_INTERVAL) {
+            saveIndex();
+        }
+    }
+
+    // Effects: Writes the heads to the index file, replacing it. Appends may continue
+    //          meanwhile: heads changed after the recorded end are also changed by the records
+    //          after it, which are scanned on open.
+    // Modifies: indexedEnd
+    private void saveIndex() throws IOException {
+        long coveredEnd;
+        long coveredSequence;
+        Map<Integer, Long> coveredFees;
+        synchronized (lock) {
+            coveredEnd = end;
+            coveredSequence = lastSequence;
+            coveredFees = new HashMap<>(feeRevenue);
+        }
+        channel.force(false);
+        Path partial = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        CRC32 check = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16), check))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(coveredEnd);
+            out.writeLong(coveredSequence);
+            for (Map.Entry<String, Head> head : heads.entrySet()) {
+                byte[] name = head.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeLong(head.getValue().offset);
+                out.writeLong(head.getValue().number);
+                out.writeLong(head.getValue().created);
+            }
+            out.writeShort(-1);
+            out.writeInt(coveredFees.size());
+            for (Map.Entry<Integer, Long> fee : coveredFees.entrySet()) {
+                out.writeInt(fee.getKey());
+                out.writeLong(fee.getValue());
+            }
+            out.flush();
+            out.writeInt((int) check.getValue());
+        }
+        Files.move(partial, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexedEnd = coveredEnd;
+    }
+
+    // Effects: Loads the heads saved in the index file and returns the position of the log up
+    //          to which they are complete, or the start of the log if there is no usable index.
+    // Modifies: heads, feeRevenue, lastSequence, indexedEnd
+    private long loadIndex() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return HEADER_SIZE;
+        }
+        CRC32 check = new CRC32();
+        Map<String, Head> loaded = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16), check))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                return HEADER_SIZE;
+            }
+            long coveredEnd = in.readLong();
+            long coveredSequence = in.readLong();
+            byte[] name = new byte[256];
+            int length;
+            while ((length = in.readShort()) >= 0) {
+                if (length > name.length) {
+                    name = new byte[length];
+                }
+                in.readFully(name, 0, length);
+                loaded.put(new String(name, 0, length, StandardCharsets.UTF_8), new Head(in.readLong(), in.readLong(), in.readLong()));
+            }
+            Map<Integer, Long> fees = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                fees.put(in.readInt(), in.readLong());
+            }
+            int expected = (int) check.getValue();
+            if (in.readInt() != expected || coveredEnd > channel.size()) {
+                return HEADER_SIZE;
+            }
+            heads.putAll(loaded);
+            feeRevenue.putAll(fees);
+            lastSequence = coveredSequence;
+            indexedEnd = coveredEnd;
+            return coveredEnd;
+        } catch (EOFException e) {
+            return HEADER_SIZE;
+        }
+    }
+
+    // Effects: Applies every complete record from start to the heads, truncates a torn record
+    //          left by a crash, and returns the end of the last complete record.
+    // Modifies: heads, feeRevenue, lastSequence, the log file
+    private long scan(long start) throws IOException {
+        long position = start;
+        long size = channel.size();
+        channel.position(start);
+        InputStream stream = Channels.newInputStream(channel);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        CRC32 check = new CRC32();
+        byte[] body = new byte[FIXED_BODY_SIZE + 256];
+        TransactionType[] types = TransactionType.values();
+        while (size - position >= 4 + FIXED_BODY_SIZE + 4) {
+            int length = in.readInt();
+            if (length < FIXED_BODY_SIZE || size - position < 4 + length + 4) {
+                break;
+            }
+            if (length > body.length) {
+                body = new byte[length];
+            }
+            in.readFully(body, 0, length);
+            check.reset();
+            check.update(body, 0, length);
+            ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+            int type = record.get(32);
+            int nameLength = record.getShort(50);
+            if (in.readInt() != (int) check.getValue() || type < 0 || type >= types.length
+                    || nameLength != length - FIXED_BODY_SIZE) {
+                break;
+            }
+            String username = new String(body, FIXED_BODY_SIZE, nameLength, StandardCharsets.UTF_8);
+            if (types[type] == TransactionType.DELETE) {
+                heads.remove(username);
+            } else {
+                if (isFee(types[type])) {
+                    feeRevenue.merge((int) record.get(33), record.getLong(34), Long::sum);
+                }
+                Head previous = heads.get(username);
+                long created = types[type] == TransactionType.CREATE ? record.getLong(24)
+                        : previous != null ? previous.created : 0;
+                heads.put(username, new Head(position, record.getLong(8), created));
+            }
+            lastSequence = Math.max(lastSequence, record.getLong(16));
+            position += 4 + length + 4;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        return position;
+    }
+
+    // Effects: If the log is of UNTIERED_VERSION, rewrites it in the current format, with
+    //          NO_TIER for every record and each record's link to the previous one moved with
+    //          it, dropping a torn last record and the index.
+    // Modifies: the log file, the index file
+    private static void upgrade(Path logFile, Path indexFile) throws IOException {
+        if (!Files.exists(logFile) || Files.size(logFile) < HEADER_SIZE) {
+            return;
+        }
+        long size = Files.size(logFile);
+        Path partial = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != UNTIERED_VERSION) {
+                return;
+            }
+            // Each record grows by one byte, so the k-th record moves k bytes.
+            long[] offsets = new long[1024];
+            int count = 0;
+            long position = HEADER_SIZE;
+            byte[] body = new byte[FIXED_BODY_SIZE + 256];
+            CRC32 check = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                while (size - position >= 4 + UNTIERED_BODY_SIZE + 4) {
+                    int length = in.readInt();
+                    if (length < UNTIERED_BODY_SIZE || size - position < 4 + length + 4) {
+                        break;
+                    }
+                    if (length + 1 > body.length) {
+                        body = new byte[length + 1];
+                    }
+                    in.readFully(body, 0, 33);
+                    in.readFully(body, 34, length - 33);
+                    check.reset();
+                    check.update(body, 0, 33);
+                    check.update(body, 34, length - 33);
+                    if (in.readInt() != (int) check.getValue()) {
+                        break;
+                    }
+                    ByteBuffer record = ByteBuffer.wrap(body, 0, length + 1);
+                    long prev = record.getLong(0);
+                    if (prev != NONE) {
+                        record.putLong(0, prev + Arrays.binarySearch(offsets, 0, count, prev));
+                    }
+                    body[33] = (byte) TransactionJournal.NO_TIER;
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    offsets[count++] = position;
+                    check.reset();
+                    check.update(body, 0, length + 1);
+                    out.writeInt(length + 1);
+                    out.write(body, 0, length + 1);
+                    out.writeInt((int) check.getValue());
+                    position += 4 + length + 4;
+                }
+            }
+            try (FileChannel written = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+                written.force(true);
+            }
+        }
+        Files.deleteIfExists(indexFile);
+        Files.move(partial, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forces the history to disk, saves the index and closes the log.
+     *
+     * @throws IOException if the history could not be forced, the index written or the log
+     *         closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (lock) {
+                channel.force(false);
+            }
+            saveIndex();
+        } finally {
+            channel.close();
+        }
+    }
+}
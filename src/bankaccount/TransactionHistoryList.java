@@ -0,0 +1,124 @@
+package bankaccount;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javafx.collections.ObservableListBase;
+
+/**
+ * A customer's transaction history, newest first, as the items of a {@code ListView}, read from
+ * the {@link AccountEngine} a page at a time as the view scrolls to it.
+ *
+ * The list holds the transactions up to its creation. {@link #get(int)} returns null for a
+ * transaction whose page has not been read yet, reads that page in the background and reports
+ * the page's items as updated once it arrives. Since a {@code ListView} only asks for the items
+ * of its visible cells, only the pages on screen are read, and at most
+ * {@link #MAX_CACHED_PAGES} are kept in memory, so a history of any length scrolls without
+ * being loaded whole. Jumping far down skips over the transactions in between without reading
+ * them, starting from the nearest page whose position is already known.
+ *
+ * This class must only be used on the JavaFX application thread.
+ */
+public class TransactionHistoryList extends ObservableListBase<TransactionHistory.Entry> {
+
+    public static final int PAGE_SIZE = 100;
+    public static final int MAX_CACHED_PAGES = 50;
+
+    private final AccountEngine engine;
+    private final AsyncOperations operations;
+    private final String username;
+    private final int size;
+    // The newest page stays loaded, as its cursor resolves to newer transactions later on.
+    private final List<TransactionHistory.Entry> firstPage;
+    private final Map<Integer, List<TransactionHistory.Entry>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<TransactionHistory.Entry>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final TreeMap<Integer, Long> cursors = new TreeMap<>();
+
+    /**
+     * Creates the list from the newest page of an account's history.
+     *
+     * @param engine The engine to read further pages from.
+     * @param username The username of the account.
+     * @param newest The page read with {@link TransactionHistory#NEWEST} and {@link #PAGE_SIZE}.
+     */
+    public TransactionHistoryList(AccountEngine engine, String username, TransactionHistory.Page newest) {
+        this.engine = engine;
+        this.operations = AsyncOperations.getInstance();
+        this.username = username;
+        this.firstPage = newest.getEntries();
+        this.size = firstPage.isEmpty() ? 0 : (int) Math.min(Integer.MAX_VALUE, firstPage.get(0).getNumber());
+        if (newest.hasMore()) {
+            cursors.put(1, newest.getNextCursor());
+        }
+    }
+
+    @Override
+    public TransactionHistory.Entry get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int page = index / PAGE_SIZE;
+        List<TransactionHistory.Entry> entries = page == 0 ? firstPage : pages.get(page);
+        if (entries == null) {
+            load(page);
+            return null;
+        }
+        int offset = index % PAGE_SIZE;
+        return offset < entries.size() ? entries.get(offset) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Effects: Reads a page in the background, unless it is already being read, starting from
+    //          the nearest known cursor before it.
+    private void load(int page) {
+        Map.Entry<Integer, Long> known = cursors.floorEntry(page);
+        if (known == null) {
+            return;
+        }
+        int from = known.getKey();
+        long fromCursor = known.getValue();
+        operations.submit(username + ":history:" + page, () -> {
+            long cursor = engine.skipHistory(username, fromCursor, (long) (page - from) * PAGE_SIZE);
+            return new LoadedPage(cursor, engine.history(username, cursor, PAGE_SIZE));
+        }, loaded -> show(page, loaded));
+    }
+
+    // Effects: Keeps a page that was read and reports its items as updated.
+    // Modifies: pages, cursors
+    private void show(int page, LoadedPage loaded) {
+        cursors.put(page, loaded.cursor);
+        if (loaded.page.hasMore()) {
+            cursors.put(page + 1, loaded.page.getNextCursor());
+        }
+        pages.put(page, loaded.page.getEntries());
+        int first = page * PAGE_SIZE;
+        int last = Math.min(size, first + loaded.page.getEntries().size());
+        if (first < last) {
+            beginChange();
+            for (int i = first; i < last; i++) {
+                nextUpdate(i);
+            }
+            endChange();
+        }
+    }
+
+    // A page read in the background and the cursor it was read from.
+    private static final class LoadedPage {
+        final long cursor;
+        final TransactionHistory.Page page;
+
+        LoadedPage(long cursor, TransactionHistory.Page page) {
+            this.cursor = cursor;
+            this.page = page;
+        }
+    }
+}
@@ -0,0 +1,637 @@
+package bankaccount;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of account transactions.
+ *
+ * Every record carries the balance after the transaction, so replaying a record more than
+ * once is harmless. The log is split into numbered segment files
+ * ({@code journal-<n>.log}); {@link #rotate()} starts a new segment so that older ones can
+ * be deleted once their balances have been checkpointed.
+ *
+ * Appends use group commit: callers that arrive while a flush is in progress are written
+ * and forced to disk together by the next flush, so one fsync covers many transactions.
+ *
+ * Sequence numbers keep increasing across rotations and restarts: each segment starts with
+ * the last sequence number assigned before it. Once a batch is durable, its records are
+ * copied to the {@link TransactionHistory} set with {@link #setHistory}, in sequence order.
+ *
+ * This class is thread-safe.
+ */
+public class TransactionJournal implements Closeable {
+
+    private static final int MAGIC = 0x42414A31; // "BAJ1"
+    private static final int VERSION = 4;
+    // Records without a tier; version 2 segments also lack the header's base sequence number.
+    private static final int UNTIERED_VERSION = 3;
+    private static final int LEGACY_VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int LEGACY_HEADER_SIZE = 8;
+    // sequence, timestamp, type, tier, amount, balanceAfter, nameLength
+    private static final int FIXED_BODY_SIZE = 8 + 8 + 1 + 1 + 8 + 8 + 2;
+    private static final int UNTIERED_BODY_SIZE = FIXED_BODY_SIZE - 1;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /** The tier of a record that is not charged to a tier. */
+    public static final int NO_TIER = -1;
+
+    /**
+     * A single replayed journal record.
+     *
+     * This class is immutable.
+     */
+    public static class Entry {
+        private final long sequence;
+        private final long timestamp;
+        private final TransactionType type;
+        private final int tier;
+        private final String username;
+        private final long amount;
+        private final long balanceAfter;
+
+        Entry(long sequence, long timestamp, TransactionType type, int tier, String username, long amount,
+                long balanceAfter) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.tier = tier;
+            this.username = username;
+            this.amount = amount;
+            this.balanceAfter = balanceAfter;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public TransactionType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the tier a fee was charged under.
+         *
+         * @return The index of the account's tier for a FEE or MAINTENANCE_FEE record, otherwise
+         *         {@link #NO_TIER}.
+         */
+        public int getTier() {
+            return tier;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public long getBalanceAfter() {
+            return balanceAfter;
+        }
+    }
+
+    private final Path directory;
+    private final Object lock = new Object();
+
+    private FileChannel channel;
+    private long segment;
+    private long lastSequence;
+    private long durableSequence;
+    private boolean flushing;
+    private IOException failure;
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private volatile TransactionHistory history;
+
+    /**
+     * Opens the journal in the given directory, starting a new segment after any existing ones.
+     *
+     * @param directory The directory holding the segment files.
+     * @throws IOException if the directory or the new segment could not be created.
+     */
+    public TransactionJournal(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Long> segments = segments();
+        long last = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+        for (long existing : segments) {
+            lastSequence = Math.max(lastSequence, lastSequenceIn(existing));
+        }
+        durableSequence = lastSequence;
+        openSegment(last + 1);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path segmentFile(long number) {
+        return directory.resolve(String.format("journal-%010d.log", number));
+    }
+
+    // Effects: Returns the numbers of all segment files in ascending order.
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    // Effects: Creates a new, empty segment and makes it the one appended to.
+    // Modifies: channel, segment
+    // Requires: No flush is in progress and pending is empty.
+    private void openSegment(long number) throws IOException {
+        FileChannel created = FileChannel.open(segmentFile(number),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(lastSequence).flip();
+        while (header.hasRemaining()) {
+            created.write(header);
+        }
+        created.force(true);
+        channel = created;
+        segment = number;
+    }
+
+    /**
+     * Appends a transaction and waits until it is durable on disk.
+     *
+     * @param type The kind of transaction.
+     * @param username The username of the account.
+     * @param amount The amount moved by the transaction, in cents.
+     * @param balanceAfter The account balance after the transaction, in cents.
+     * @return The sequence number assigned to the record.
+     * @throws IOException if the journal could not be written.
+     */
+    public long append(TransactionType type, String username, long amount, long balanceAfter) throws IOException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        long sequence;
+        synchronized (lock) {
+            checkUsable();
+            sequence = write(type, NO_TIER, name, amount, balanceAfter);
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Appends a purchase and the fee charged for it as two consecutive records in the same
+     * batch, and waits until both are durable on disk. No fee record is written if the fee is
+     * zero.
+     *
+     * @param username The username of the account.
+     * @param amount The purchase amount, in cents.
+     * @param fee The tier fee charged for the purchase, in cents.
+     * @param tier The index of the tier the fee was charged under, recorded with the fee.
+     * @param balanceAfter The account balance after both the amount and the fee, in cents.
+     * @return The sequence number of the last record written.
+     * @throws IOException if the journal could not be written.
+     */
+    public long appendPurchase(String username, long amount, long fee, int tier, long balanceAfter) throws IOException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        long sequence;
+        synchronized (lock) {
+            checkUsable();
+            sequence = write(TransactionType.PURCHASE, NO_TIER, name, amount, balanceAfter + fee);
+            if (fee != 0) {
+                sequence = write(TransactionType.FEE, tier, name, fee, balanceAfter);
+            }
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Appends a transfer as a TRANSFER_OUT record for the payer immediately followed by a
+     * TRANSFER_IN record for the payee in the same batch, and waits until both are durable on
+     * disk. {@link #replay} skips a TRANSFER_OUT record whose TRANSFER_IN record was lost in a
+     * crash, so a transfer is recovered either whole or not at all.
+     *
+     * @param from The username of the payer.
+     * @param to The username of the payee.
+     * @param amount The amount transferred, in cents.
+     * @param fromBalanceAfter The payer's balance after the transfer, in cents.
+     * @param toBalanceAfter The payee's balance after the transfer, in cents.
+     * @return The sequence number of the TRANSFER_IN record.
+     * @throws IOException if the journal could not be written.
+     */
+    public long appendTransfer(String from, String to, long amount, long fromBalanceAfter, long toBalanceAfter)
+            throws IOException {
+        byte[] fromName = from.getBytes(StandardCharsets.UTF_8);
+        byte[] toName = to.getBytes(StandardCharsets.UTF_8);
+        long sequence;
+        synchronized (lock) {
+            checkUsable();
+            write(TransactionType.TRANSFER_OUT, NO_TIER, fromName, amount, fromBalanceAfter);
+            sequence = write(TransactionType.TRANSFER_IN, NO_TIER, toName, amount, toBalanceAfter);
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Appends one record of the same type per account in a single batch, and waits until all
+     * of them are durable on disk.
+     *
+     * @param type The kind of transaction.
+     * @param usernames The username of each account.
+     * @param balancesAfter The balance of each account after the transaction, in cents, which
+     *        is also recorded as the amount.
+     * @return The sequence number of the last record written.
+     * @throws IOException if the journal could not be written.
+     */
+    public long appendAll(TransactionType type, List<String> usernames, long[] balancesAfter) throws IOException {
+        byte[][] names = new byte[usernames.size()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = usernames.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        long sequence;
+        synchronized (lock) {
+            checkUsable();
+            sequence = lastSequence;
+            for (int i = 0; i < names.length; i++) {
+                sequence = write(type, NO_TIER, names[i], balancesAfter[i], balancesAfter[i]);
+            }
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Appends the interest and maintenance fees of one chunk of a monthly accrual, followed by
+     * an ACCRUAL record naming the period and the chunk, in a single batch, and waits until
+     * all of them are durable on disk. {@link #replay} skips the records of a chunk whose
+     * ACCRUAL record was lost in a crash, so a chunk is recovered either whole or not at all.
+     * No record is written for a zero amount.
+     *
+     * @param period The accrual period, e.g. {@code 2024-05}.
+     * @param chunk The number of the chunk.
+     * @param chunks The number of chunks in the period.
+     * @param usernames The username of each account.
+     * @param balancesBefore The balance of each account before the accrual, in cents.
+     * @param interest The interest credited to each account, in cents.
+     * @param fees The maintenance fee charged to each account after its interest, in cents.
+     * @param tiers The index of the tier each account's fee was charged under.
+     * @return The sequence number of the ACCRUAL record.
+     * @throws IOException if the journal could not be written.
+     */
+    public long appendAccrual(String period, int chunk, int chunks, List<String> usernames, long[] balancesBefore,
+            long[] interest, long[] fees, int[] tiers) throws IOException {
+        byte[][] names = new byte[usernames.size()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = usernames.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] periodName = period.getBytes(StandardCharsets.UTF_8);
+        long sequence;
+        synchronized (lock) {
+            checkUsable();
+            for (int i = 0; i < names.length; i++) {
+                long balance = balancesBefore[i] + interest[i];
+                if (interest[i] != 0) {
+                    write(TransactionType.INTEREST, NO_TIER, names[i], interest[i], balance);
+                }
+                if (fees[i] != 0) {
+                    write(TransactionType.MAINTENANCE_FEE, tiers[i], names[i], fees[i], balance - fees[i]);
+                }
+            }
+            sequence = write(TransactionType.ACCRUAL, NO_TIER, periodName, chunk, chunks);
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("Journal is unusable after an earlier write failure", failure);
+        }
+    }
+
+    // Effects: Adds a record to the pending batch and returns its sequence number.
+    // Modifies: pending, lastSequence
+    // Requires: The caller holds lock.
+    private long write(TransactionType type, int tier, byte[] name, long amount, long balanceAfter) {
+        long sequence = ++lastSequence;
+        int size = 4 + FIXED_BODY_SIZE + name.length + 4;
+        if (pending.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        int start = pending.position();
+        pending.putInt(FIXED_BODY_SIZE + name.length);
+        pending.putLong(sequence);
+        pending.putLong(System.currentTimeMillis());
+        pending.put((byte) type.ordinal());
+        pending.put((byte) tier);
+        pending.putLong(amount);
+        pending.putLong(balanceAfter);
+        pending.putShort((short) name.length);
+        pending.put(name);
+        crc.reset();
+        crc.update(pending.array(), start + 4, FIXED_BODY_SIZE + name.length);
+        pending.putInt((int) crc.getValue());
+        return sequence;
+    }
+
+    // Effects: Returns once every record up to sequence has been forced to disk, flushing the
+    //          pending batch itself if no other thread is doing so.
+    private void awaitDurable(long sequence) throws IOException {
+        ByteBuffer batch;
+        long batchSequence;
+        synchronized (lock) {
+            while (durableSequence < sequence && flushing && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the journal");
+                }
+            }
+            if (failure != null) {
+                throw new IOException("Journal write failed", failure);
+            }
+            if (durableSequence >= sequence) {
+                return;
+            }
+            flushing = true;
+            batch = pending;
+            batchSequence = lastSequence;
+            pending = spare;
+        }
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                flushing = false;
+                lock.notifyAll();
+            }
+            throw e;
+        }
+        copyToHistory(batch);
+        synchronized (lock) {
+            batch.clear();
+            spare = batch;
+            durableSequence = batchSequence;
+            flushing = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Sets the history that records are copied to once they are durable.
+     *
+     * @param history The history, or null to stop copying.
+     */
+    public void setHistory(TransactionHistory history) {
+        this.history = history;
+    }
+
+    // Effects: Copies the records of a batch that has just been forced to disk to the history.
+    //          A failure is reported but does not fail the batch, which is already durable.
+    // Requires: No other thread is writing a batch.
+    private void copyToHistory(ByteBuffer batch) {
+        TransactionHistory target = history;
+        if (target == null) {
+            return;
+        }
+        batch.rewind();
+        List<Entry> entries = new ArrayList<>();
+        decode(batch, FIXED_BODY_SIZE, entries::add);
+        try {
+            target.append(entries);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last record appended, durable or not.
+     *
+     * @return The last sequence number assigned.
+     */
+    public long lastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one. Records appended afterwards go to the
+     * new segment.
+     *
+     * @return The number of the new segment; every older segment is complete.
+     * @throws IOException if the segments could not be switched.
+     */
+    public long rotate() throws IOException {
+        synchronized (lock) {
+            while (flushing) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while rotating the journal");
+                }
+            }
+            checkUsable();
+            pending.flip();
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+            channel.force(false);
+            copyToHistory(pending);
+            pending.clear();
+            channel.close();
+            durableSequence = lastSequence;
+            openSegment(segment + 1);
+            return segment;
+        }
+    }
+
+    /**
+     * Deletes every segment numbered below the given one.
+     *
+     * @param number The first segment to keep.
+     * @throws IOException if a segment could not be deleted.
+     */
+    public void deleteSegmentsBefore(long number) throws IOException {
+        for (long existing : segments()) {
+            if (existing < number) {
+                Files.deleteIfExists(segmentFile(existing));
+            }
+        }
+    }
+
+    /**
+     * Replays every complete record of every segment before the current one, oldest first.
+     * A torn record at the end of a segment, left by a crash mid-write, ends that segment, and
+     * a transfer whose TRANSFER_IN record was torn off, or an accrual chunk whose ACCRUAL record
+     * was, is skipped whole.
+     *
+     * @param consumer Receives each record in order.
+     * @return The number of the current segment; replayed segments are all older.
+     * @throws IOException if a segment could not be read.
+     */
+    public long replay(Consumer<Entry> consumer) throws IOException {
+        long current;
+        synchronized (lock) {
+            current = segment;
+        }
+        for (long existing : segments()) {
+            if (existing < current) {
+                Entry[] payer = new Entry[1];
+                List<Entry> accrual = new ArrayList<>();
+                readSegment(existing, entry -> {
+                    if (payer[0] != null) {
+                        if (entry.getType() == TransactionType.TRANSFER_IN && entry.getSequence() == payer[0].getSequence() + 1) {
+                            consumer.accept(payer[0]);
+                        }
+                        payer[0] = null;
+                    }
+                    TransactionType type = entry.getType();
+                    if (type == TransactionType.INTEREST || type == TransactionType.MAINTENANCE_FEE) {
+                        accrual.add(entry);
+                    } else if (type == TransactionType.ACCRUAL) {
+                        accrual.forEach(consumer);
+                        accrual.clear();
+                        consumer.accept(entry);
+                    } else {
+                        accrual.clear();
+                        if (type == TransactionType.TRANSFER_OUT) {
+                            payer[0] = entry;
+                        } else {
+                            consumer.accept(entry);
+                        }
+                    }
+                });
+            }
+        }
+        return current;
+    }
+
+    private long lastSequenceIn(long number) throws IOException {
+        long[] last = new long[1];
+        long base = readSegment(number, entry -> last[0] = entry.getSequence());
+        return Math.max(base, last[0]);
+    }
+
+    // Effects: Passes every complete record of a segment to consumer and returns the sequence
+    //          number the segment starts after.
+    private long readSegment(long number, Consumer<Entry> consumer) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segmentFile(number)));
+        if (data.remaining() < LEGACY_HEADER_SIZE) {
+            return 0;
+        }
+        if (data.getInt() != MAGIC) {
+            throw new IOException("Unrecognized journal segment " + segmentFile(number));
+        }
+        int version = data.getInt();
+        long base = 0;
+        if (version == VERSION || version == UNTIERED_VERSION) {
+            if (data.remaining() < HEADER_SIZE - LEGACY_HEADER_SIZE) {
+                return 0;
+            }
+            base = data.getLong();
+        } else if (version != LEGACY_VERSION) {
+            throw new IOException("Unrecognized journal segment " + segmentFile(number));
+        }
+        decode(data, version == VERSION ? FIXED_BODY_SIZE : UNTIERED_BODY_SIZE, consumer);
+        return base;
+    }
+
+    // Effects: Passes every complete record from the position of data to consumer, stopping at
+    //          the first torn or corrupt one. Records of bodySize UNTIERED_BODY_SIZE have no tier.
+    private static void decode(ByteBuffer data, int bodySize, Consumer<Entry> consumer) {
+        CRC32 check = new CRC32();
+        TransactionType[] types = TransactionType.values();
+        while (data.remaining() >= 4) {
+            int start = data.position();
+            int length = data.getInt();
+            if (length < bodySize || data.remaining() < length + 4) {
+                break;
+            }
+            check.reset();
+            check.update(data.array(), start + 4, length);
+            long sequence = data.getLong();
+            long timestamp = data.getLong();
+            int type = data.get();
+            int tier = bodySize == FIXED_BODY_SIZE ? data.get() : NO_TIER;
+            long amount = data.getLong();
+            long balanceAfter = data.getLong();
+            int nameLength = data.getShort();
+            if (nameLength != length - bodySize || type < 0 || type >= types.length) {
+                break;
+            }
+            String username = new String(data.array(), data.position(), nameLength, StandardCharsets.UTF_8);
+            data.position(data.position() + nameLength);
+            if (data.getInt() != (int) check.getValue()) {
+                break;
+            }
+            consumer.accept(new Entry(sequence, timestamp, types[type], tier, username, amount, balanceAfter));
+        }
+    }
+
+    /**
+     * Flushes any pending records and closes the current segment.
+     *
+     * @throws IOException if the segment could not be flushed or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            while (flushing) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (failure == null && pending.position() > 0) {
+                pending.flip();
+                while (pending.hasRemaining()) {
+                    channel.write(pending);
+                }
+                channel.force(false);
+                copyToHistory(pending);
+                pending.clear();
+            }
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package bankaccount;
+
+/**
+ * Kind of change recorded in the {@link TransactionJournal}.
+ */
+public enum TransactionType {
+    CREATE,
+    DELETE,
+    DEPOSIT,
+    WITHDRAWAL,
+    PURCHASE,
+    FEE,
+    TRANSFER_OUT,
+    TRANSFER_IN,
+    INTEREST,
+    MAINTENANCE_FEE,
+    // Ends the records of one chunk of a monthly accrual; the username field holds the period.
+    ACCRUAL
+}
@@ -0,0 +1,123 @@
+package bankaccount.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Minimal throughput harness for the benchmarks in this package. Each benchmark runs a warm-up
+ * phase so the JIT settles, then counts the operations completed in a measurement window.
+ *
+ * The value returned by every operation is folded into a sink that is printed by
+ * {@link #done()}, so the JIT cannot eliminate the work being measured. The window lengths can
+ * be changed with the {@code bench.warmupMillis} and {@code bench.measureMillis} system
+ * properties. If {@code bench.csv} names a file, every result is also appended to it as
+ * {@code name,threads,opsPerSecond,nsPerOp} so runs can be compared for regressions.
+ */
+public final class Bench {
+
+    private static final long WARMUP_MILLIS = Long.getLong("bench.warmupMillis", 2000);
+    private static final long MEASURE_MILLIS = Long.getLong("bench.measureMillis", 3000);
+    private static final String CSV = System.getProperty("bench.csv");
+    private static final int BATCH = 64;
+
+    private static final LongAdder sink = new LongAdder();
+
+    private Bench() {
+    }
+
+    /**
+     * Runs an operation on a single thread and prints its throughput.
+     *
+     * @param name The name printed with the result.
+     * @param operation Receives the iteration number and returns a value to sink.
+     * @return Operations per second.
+     */
+    public static double run(String name, LongUnaryOperator operation) {
+        return run(name, 1, thread -> operation);
+    }
+
+    /**
+     * Creates one operation per thread, runs them concurrently and prints the combined
+     * throughput.
+     *
+     * @param name The name printed with the result.
+     * @param threads The number of threads.
+     * @param factory Creates the operation run by each thread, given the thread number.
+     * @return Operations per second summed over all threads.
+     */
+    public static double run(String name, int threads, IntFunction<LongUnaryOperator> factory) {
+        loop(threads, factory, WARMUP_MILLIS);
+        double perSecond = loop(threads, factory, MEASURE_MILLIS);
+        double nanosPerOp = 1e9 * threads / perSecond;
+        System.out.printf("%-48s %3d threads %,16.0f ops/s %,12.1f ns/op%n", name, threads, perSecond, nanosPerOp);
+        if (CSV != null) {
+            try (Writer out = Files.newBufferedWriter(Paths.get(CSV), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(String.format(Locale.ROOT, "\"%s\",%d,%.0f,%.1f%n", name, threads, perSecond, nanosPerOp));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return perSecond;
+    }
+
+    // Effects: Runs the operations for about millis milliseconds and returns operations per second.
+    private static double loop(int threads, IntFunction<LongUnaryOperator> factory, long millis) {
+        long[] counts = new long[threads];
+        long[] elapsed = new long[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            LongUnaryOperator operation = factory.apply(thread);
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long local = 0;
+                long iteration = 0;
+                long begin = System.nanoTime();
+                long deadline = begin + millis * 1_000_000L;
+                long now;
+                do {
+                    for (int i = 0; i < BATCH; i++) {
+                        local += operation.applyAsLong(iteration++);
+                    }
+                    now = System.nanoTime();
+                } while (now < deadline);
+                counts[thread] = iteration;
+                elapsed[thread] = now - begin;
+                sink.add(local);
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        start.countDown();
+        double perSecond = 0;
+        for (int t = 0; t < threads; t++) {
+            try {
+                workers[t].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            perSecond += counts[t] * 1e9 / elapsed[t];
+        }
+        return perSecond;
+    }
+
+    /**
+     * Prints the sink so that no benchmarked work can be discarded as dead code.
+     */
+    public static void done() {
+        System.out.println("(sink " + sink.sum() + ")");
+    }
+}
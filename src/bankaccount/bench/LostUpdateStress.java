@@ -0,0 +1,138 @@
+package bankaccount.bench;
+
+import bankaccount.AccountEngine;
+import bankaccount.MappedAccountStore;
+import bankaccount.Money;
+import bankaccount.OperationResult;
+import bankaccount.TransactionJournal;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stress check that concurrent deposits, withdrawals, purchases and transfers lose no updates.
+ *
+ * Many threads hammer a small set of accounts through an engine whose cache is much smaller
+ * than the account set, so accounts are evicted and reloaded constantly while a background
+ * thread checkpoints. Every successful operation is added to an expected per-account total.
+ * Balances stay in the Silver tier, so every purchase costs its amount plus the Silver fee.
+ * At the end, and again after reopening the engine from disk, every balance must equal its
+ * expected total. Exits with status 1 on any mismatch.
+ *
+ * Usage: {@code LostUpdateStress [threads] [accounts] [operationsPerThread]}
+ */
+public final class LostUpdateStress {
+
+    private static final long OPENING_BALANCE = Money.of(5000);
+    private static final long SILVER_FEE = Money.of(30);
+
+    private LostUpdateStress() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        Path directory = Files.createTempDirectory("lost-update-stress");
+
+        AtomicLongArray expected = new AtomicLongArray(accounts);
+        AccountEngine engine = open(directory, accounts);
+        for (int i = 0; i < accounts; i++) {
+            engine.createAccount("stress" + i, "password", OPENING_BALANCE);
+            expected.set(i, OPENING_BALANCE);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread checkpointer = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    engine.checkpoint();
+                    Thread.sleep(5);
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        });
+        checkpointer.start();
+
+        long start = System.nanoTime();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < operations; i++) {
+                    int account = random.nextInt(accounts);
+                    String username = "stress" + account;
+                    long amount = Money.of(1 + random.nextInt(20));
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            if (engine.deposit(username, amount) == OperationResult.SUCCESS) {
+                                expected.addAndGet(account, amount);
+                            }
+                            break;
+                        case 1:
+                            if (engine.withdraw(username, amount) == OperationResult.SUCCESS) {
+                                expected.addAndGet(account, -amount);
+                            }
+                            break;
+                        case 2:
+                            int payee = random.nextInt(accounts);
+                            if (engine.transfer(username, "stress" + payee, amount) == OperationResult.SUCCESS) {
+                                expected.addAndGet(account, -amount);
+                                expected.addAndGet(payee, amount);
+                            }
+                            break;
+                        default:
+                            amount += AccountEngine.MINIMUM_PURCHASE;
+                            if (engine.purchase(username, amount) == OperationResult.SUCCESS) {
+                                expected.addAndGet(account, -(amount + SILVER_FEE));
+                            }
+                            break;
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        checkpointer.join();
+        System.out.printf("%d threads, %d accounts: %,.0f ops/s, %s%n",
+                threads, accounts, threads * (double) operations / seconds, engine.getCache());
+
+        int mismatches = verify(engine, expected, "live");
+        engine.close();
+        AccountEngine reopened = open(directory, accounts);
+        mismatches += verify(reopened, expected, "reopened");
+        reopened.close();
+        if (mismatches > 0) {
+            System.out.println("FAILED: " + mismatches + " lost or phantom updates");
+            System.exit(1);
+        }
+        System.out.println("OK: no lost updates");
+    }
+
+    private static AccountEngine open(Path directory, int accounts) throws IOException {
+        return new AccountEngine(new MappedAccountStore(directory), new TransactionJournal(directory),
+                Math.max(16, accounts / 4), 64);
+    }
+
+    private static int verify(AccountEngine engine, AtomicLongArray expected, String phase) {
+        int mismatches = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            long actual = engine.balance("stress" + i);
+            if (actual != expected.get(i)) {
+                System.out.println(phase + ": stress" + i + " expected " + Money.format(expected.get(i))
+                        + " but was " + Money.format(actual));
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+}
@@ -0,0 +1,73 @@
+package bankaccount.bench;
+
+import bankaccount.Account;
+import bankaccount.AccountEngine;
+import bankaccount.Credentials;
+import bankaccount.MappedAccountStore;
+import bankaccount.Money;
+import bankaccount.RateLimiter;
+import bankaccount.StripedLocks;
+import bankaccount.TierTable;
+import bankaccount.TransactionJournal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sustained durable purchase throughput: every purchase is journaled as a PURCHASE
+ * and a FEE record and only returns once both are on disk, so the numbers include the fsync
+ * cost shared through group commit. Deposits are measured on the same engine for comparison,
+ * and so are purchases that carry an idempotency key and pass a per-account rate limiter set
+ * high enough never to refuse them, to show what those checks add.
+ *
+ * Every account is opened with a large balance and the tier table has a single Silver tier, so
+ * every purchase pays a fee and no account runs out of funds during the run.
+ *
+ * Usage: {@code PurchaseBenchmark [accounts] [maxThreads]}
+ */
+public final class PurchaseBenchmark {
+
+    private static final long OPENING_BALANCE = Money.of(1_000_000_000L);
+
+    private PurchaseBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 4;
+        Path directory = Files.createTempDirectory("purchase-benchmark");
+        MappedAccountStore store = new MappedAccountStore(directory);
+        String[] usernames = new String[accounts];
+        Credentials.Hashed credential = Credentials.create("password");
+        for (int i = 0; i < accounts; i++) {
+            usernames[i] = "buyer" + i;
+            store.createHashed(new Account(usernames[i], "customer", OPENING_BALANCE), credential);
+        }
+        try (AccountEngine engine = new AccountEngine(store, new TransactionJournal(directory),
+                accounts, StripedLocks.DEFAULT_STRIPES, TierTable.parse("Silver:0"))) {
+            engine.startCheckpointing(AccountEngine.DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+            for (int threads = 1; threads <= maxThreads; threads *= 4) {
+                int count = threads;
+                Bench.run("purchase (journaled amount + fee)", threads, thread -> i -> {
+                    String username = usernames[(int) ((i * count + thread) % accounts)];
+                    return engine.purchase(username, AccountEngine.MINIMUM_PURCHASE).ordinal();
+                });
+                Bench.run("deposit (journaled)", threads, thread -> i -> {
+                    String username = usernames[(int) ((i * count + thread) % accounts)];
+                    return engine.deposit(username, Money.of(1)).ordinal();
+                });
+            }
+
+            engine.setPurchaseRateLimiter(new RateLimiter(1e9, Integer.MAX_VALUE));
+            for (int threads = 1; threads <= maxThreads; threads *= 4) {
+                int count = threads;
+                Bench.run("purchase (idempotency key + rate limit)", threads, thread -> i -> {
+                    String username = usernames[(int) ((i * count + thread) % accounts)];
+                    return engine.purchase(username, AccountEngine.MINIMUM_PURCHASE, thread + "-" + i).ordinal();
+                });
+            }
+        }
+        Bench.done();
+    }
+}
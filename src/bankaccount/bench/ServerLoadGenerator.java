@@ -0,0 +1,212 @@
+package bankaccount.bench;
+
+import bankaccount.AccountEngine;
+import bankaccount.AccountServer;
+import bankaccount.LatencyHistogram;
+import bankaccount.MappedAccountStore;
+import bankaccount.StripedLocks;
+import bankaccount.TransactionJournal;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator for {@link AccountServer}: many concurrent clients, each logged in as its own
+ * customer, send a mix of balance reads (50%), deposits (25%), purchases with an idempotency
+ * key (20%) and withdrawals (5%) as fast as the server answers, for a fixed time. It then
+ * prints the throughput, the latency percentiles of every request type as seen by the clients
+ * and the count of every response status, counting requests that failed to get a response as
+ * status {@code error}.
+ *
+ * The customers {@code load0}, {@code load1}, ... are created through the manager endpoint
+ * first, logged in as {@code bankaccount.managerUsername} with the password
+ * {@code bankaccount.managerPassword}; customers that already exist are reused.
+ *
+ * Usage: {@code ServerLoadGenerator [clients] [seconds] [baseUrl]}, by default 1000 clients for
+ * 30 seconds. Without a base URL the generator starts a server on a temporary data directory
+ * in the same process.
+ */
+public final class ServerLoadGenerator {
+
+    private static final String[] REQUESTS = {"balance", "deposit", "purchase", "withdraw"};
+    private static final String PASSWORD = "password";
+    private static final String MANAGER_USERNAME =
+            System.getProperty("bankaccount.managerUsername", AccountServer.DEFAULT_MANAGER_USERNAME);
+    // The in-process server is given this password unless one is set.
+    private static final String MANAGER_PASSWORD = System.getProperty("bankaccount.managerPassword", "load-manager");
+
+    private ServerLoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        if (args.length > 2) {
+            run(args[2], clients, seconds);
+            return;
+        }
+        Path directory = Files.createTempDirectory("server-load");
+        try (AccountEngine engine = new AccountEngine(new MappedAccountStore(directory), new TransactionJournal(directory),
+                AccountEngine.DEFAULT_CACHE_SIZE, StripedLocks.DEFAULT_STRIPES)) {
+            AccountServer server = new AccountServer(engine, new InetSocketAddress("localhost", 0), MANAGER_USERNAME,
+                    MANAGER_PASSWORD, AccountServer.DEFAULT_SESSION_TTL_MILLIS, TimeUnit.MILLISECONDS);
+            server.start();
+            try {
+                run("http://localhost:" + server.getAddress().getPort(), clients, seconds);
+            } finally {
+                server.close();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void run(String baseUrl, int clients, int seconds) throws Exception {
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        String manager = token(http, baseUrl, MANAGER_USERNAME, MANAGER_PASSWORD);
+
+        System.out.printf("Logging in %,d clients...%n", clients);
+        String[] tokens = new String[clients];
+        CountDownLatch ready = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            clientThreads.execute(() -> {
+                try {
+                    String username = "load" + client;
+                    post(http, baseUrl, "/manager/customers", manager,
+                            "{\"username\":\"" + username + "\",\"password\":\"" + PASSWORD + "\",\"balance\":\"100000\"}", null);
+                    tokens[client] = token(http, baseUrl, username, PASSWORD);
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    ready.countDown();
+                }
+            });
+        }
+        ready.await();
+
+        LatencyHistogram[] latencies = new LatencyHistogram[REQUESTS.length];
+        for (int r = 0; r < REQUESTS.length; r++) {
+            latencies[r] = new LatencyHistogram();
+        }
+        Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            String token = tokens[c];
+            clientThreads.execute(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (token != null && System.nanoTime() < end) {
+                        int roll = random.nextInt(100);
+                        int request = roll < 50 ? 0 : roll < 75 ? 1 : roll < 95 ? 2 : 3;
+                        long sent = System.nanoTime();
+                        String status;
+                        try {
+                            if (request == 0) {
+                                status = String.valueOf(send(http, HttpRequest.newBuilder(URI.create(baseUrl + "/balance"))
+                                        .header("Authorization", "Bearer " + token).GET().build()).statusCode());
+                            } else {
+                                String amount = request == 2 ? "50" : String.valueOf(1 + random.nextInt(20));
+                                String key = request == 2 ? Long.toHexString(random.nextLong()) : null;
+                                status = String.valueOf(post(http, baseUrl, "/" + REQUESTS[request], token,
+                                        "{\"amount\":\"" + amount + "\"}", key).statusCode());
+                            }
+                        } catch (IOException e) {
+                            status = "error";
+                        }
+                        latencies[request].record(System.nanoTime() - sent);
+                        statuses.computeIfAbsent(REQUESTS[request] + " " + status, k -> new LongAdder()).increment();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        clientThreads.shutdown();
+
+        long total = 0;
+        for (LatencyHistogram histogram : latencies) {
+            total += histogram.getCount();
+        }
+        System.out.printf("%,d requests from %,d clients in %.1f s: %,.0f requests/s%n", total, clients, elapsed, total / elapsed);
+        System.out.printf("%-10s %12s %10s %10s %10s %10s %10s  (ms)%n", "request", "count", "mean", "p50", "p99", "p99.9", "max");
+        for (int r = 0; r < REQUESTS.length; r++) {
+            LatencyHistogram histogram = latencies[r];
+            System.out.printf("%-10s %,12d %10.2f %10.2f %10.2f %10.2f %10.2f%n", REQUESTS[r], histogram.getCount(),
+                    histogram.getMeanNanos() / 1e6, histogram.getPercentileNanos(50) / 1e6,
+                    histogram.getPercentileNanos(99) / 1e6, histogram.getPercentileNanos(99.9) / 1e6,
+                    histogram.getMaxNanos() / 1e6);
+        }
+        for (Map.Entry<String, LongAdder> status : new TreeMap<>(statuses).entrySet()) {
+            System.out.printf("  %-20s %,12d%n", status.getKey(), status.getValue().sum());
+        }
+    }
+
+    // Effects: Logs in and returns the session token, or null if the login was refused.
+    private static String token(HttpClient http, String baseUrl, String username, String password)
+            throws IOException, InterruptedException {
+        HttpResponse<String> response = post(http, baseUrl, "/login", null,
+                "{\"username\":\"" + username + "\",\"password\":\"" + password + "\"}", null);
+        if (response.statusCode() != 200) {
+            System.err.println("Login of " + username + " failed: " + response.statusCode() + " " + response.body());
+            return null;
+        }
+        String body = response.body();
+        int start = body.indexOf("\"token\":\"") + 9;
+        return body.substring(start, body.indexOf('"', start));
+    }
+
+    private static HttpResponse<String> post(HttpClient http, String baseUrl, String path, String token, String json,
+            String idempotencyKey) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        if (idempotencyKey != null) {
+            request.header("Idempotency-Key", idempotencyKey);
+        }
+        return send(http, request.build());
+    }
+
+    private static HttpResponse<String> send(HttpClient http, HttpRequest request) throws IOException, InterruptedException {
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isDirectory(file)) {
+                    delete(file);
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.delete(directory);
+    }
+}
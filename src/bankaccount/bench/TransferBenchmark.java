@@ -0,0 +1,88 @@
+package bankaccount.bench;
+
+import bankaccount.AccountEngine;
+import bankaccount.MappedAccountStore;
+import bankaccount.Money;
+import bankaccount.StripedLocks;
+import bankaccount.TransactionJournal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Throughput of {@link AccountEngine#transfer} under contention: every thread transfers small
+ * amounts between random pairs of a few hot accounts, in both directions, so opposite
+ * transfers between the same two accounts constantly race for the same lock stripes. With
+ * two hot accounts every transfer contends with every other one.
+ *
+ * After each account count the total of the hot balances must be unchanged: money is neither
+ * created nor lost. Exits with status 1 otherwise. A deadlock shows up as a run that never
+ * finishes.
+ *
+ * Usage: {@code TransferBenchmark [hotAccounts,...] [maxThreads]}, by default {@code 2,8,64}
+ * hot accounts and up to twice the number of processors.
+ */
+public final class TransferBenchmark {
+
+    private static final long OPENING_BALANCE = Money.of(1_000_000);
+
+    private TransferBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] sizes = (args.length > 0 ? args[0] : "2,8,64").split(",");
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        boolean conserved = true;
+        for (String size : sizes) {
+            conserved &= run(Integer.parseInt(size.trim()), maxThreads);
+        }
+        Bench.done();
+        if (!conserved) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int hot, int maxThreads) throws IOException {
+        Path directory = Files.createTempDirectory("transfer-benchmark");
+        try (AccountEngine engine = new AccountEngine(new MappedAccountStore(directory), new TransactionJournal(directory),
+                AccountEngine.DEFAULT_CACHE_SIZE, StripedLocks.DEFAULT_STRIPES)) {
+            String[] usernames = new String[hot];
+            for (int i = 0; i < hot; i++) {
+                usernames[i] = "hot" + i;
+                engine.createAccount(usernames[i], "password", OPENING_BALANCE);
+            }
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                Bench.run("transfer [" + hot + " hot accounts]", threads, thread -> i -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int from = random.nextInt(hot);
+                    int to = (from + 1 + random.nextInt(hot - 1)) % hot;
+                    return engine.transfer(usernames[from], usernames[to], 1 + random.nextInt(100)).ordinal();
+                });
+            }
+            long total = 0;
+            for (String username : usernames) {
+                total += engine.balance(username);
+            }
+            if (total != hot * OPENING_BALANCE) {
+                System.out.println("FAILED: " + hot + " hot accounts hold $" + Money.format(total) + " instead of $"
+                        + Money.format(hot * OPENING_BALANCE));
+                return false;
+            }
+            System.out.println("OK: " + hot + " hot accounts still hold $" + Money.format(total));
+            return true;
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
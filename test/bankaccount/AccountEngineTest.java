@@ -0,0 +1,74 @@
+package bankaccount;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AccountEngineTest {
+
+    @TempDir
+    Path directory;
+
+    private AccountEngine engine;
+
+    @BeforeEach
+    void openEngine() throws IOException {
+        engine = new AccountEngine(new MappedAccountStore(directory), new TransactionJournal(directory));
+    }
+
+    @AfterEach
+    void closeEngine() throws IOException {
+        engine.close();
+    }
+
+    @Test
+    void rejectedPurchasesDoNotUseTheRateLimit() {
+        int burst = 3;
+        engine.setPurchaseRateLimiter(new RateLimiter(0.001, burst));
+        engine.createAccount("alice", "secret", Money.of(1000));
+        for (int i = 0; i < burst * 2; i++) {
+            assertEquals(OperationResult.INSUFFICIENT_FUNDS, engine.purchase("alice", Money.of(10000)));
+            assertEquals(OperationResult.BELOW_MINIMUM_PURCHASE, engine.purchase("alice", 1));
+        }
+        for (int i = 0; i < burst; i++) {
+            assertEquals(OperationResult.SUCCESS, engine.purchase("alice", AccountEngine.MINIMUM_PURCHASE));
+        }
+        assertEquals(OperationResult.RATE_LIMITED, engine.purchase("alice", AccountEngine.MINIMUM_PURCHASE));
+    }
+
+    @Test
+    void negativeOpeningBalancesAreRejected() {
+        assertEquals(OperationResult.INVALID_AMOUNT, engine.createAccount("alice", "secret", -1));
+        OperationResult[] results = engine.createAccounts(List.of("bob", "carol"), List.of("secret", "secret"),
+                new long[] {-Money.of(10), Money.of(10)});
+        assertArrayEquals(new OperationResult[] {OperationResult.INVALID_AMOUNT, OperationResult.SUCCESS}, results);
+        assertFalse(engine.exists("alice"));
+        assertFalse(engine.exists("bob"));
+        assertEquals(Money.of(10), engine.balance("carol"));
+    }
+
+    @Test
+    void batchAndSingleCreatesOfOneUsernameDoNotConflict() {
+        for (int i = 0; i < 10; i++) {
+            String username = "user" + i;
+            CompletableFuture<OperationResult> single =
+                    CompletableFuture.supplyAsync(() -> engine.createAccount(username, "secret", Money.of(10)));
+            OperationResult batch = engine.createAccounts(List.of(username), List.of("secret"), new long[] {Money.of(10)})[0];
+            List<OperationResult> results = List.of(single.join(), batch);
+            assertTrue(results.contains(OperationResult.SUCCESS), results.toString());
+            assertTrue(results.contains(OperationResult.ACCOUNT_EXISTS), results.toString());
+        }
+        assertEquals(10, engine.getMetrics().count(EngineMetrics.Operation.CREATE, OperationResult.SUCCESS));
+        assertEquals(10, engine.getMetrics().count(EngineMetrics.Operation.CREATE, OperationResult.ACCOUNT_EXISTS));
+    }
+}
@@ -0,0 +1,122 @@
+package bankaccount;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AccountServerTest {
+
+    private static final String MANAGER_PASSWORD = "manager-secret";
+    private static final Pattern TOKEN = Pattern.compile("\"token\":\"([0-9a-f]+)\"");
+
+    @TempDir
+    Path directory;
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private AccountEngine engine;
+    private AccountServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        engine = new AccountEngine(new MappedAccountStore(directory), new TransactionJournal(directory));
+        startServer(1, TimeUnit.HOURS);
+    }
+
+    private void startServer(long sessionTtl, TimeUnit unit) throws IOException {
+        server = new AccountServer(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                AccountServer.DEFAULT_MANAGER_USERNAME, MANAGER_PASSWORD, sessionTtl, unit);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+        engine.close();
+    }
+
+    private HttpResponse<String> send(String method, String path, String token, String body)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://"
+                + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> login(String username, String password) throws IOException, InterruptedException {
+        return send("POST", "/login", null, "{\"username\":\"" + username + "\",\"password\":\"" + password + "\"}");
+    }
+
+    private String token(String username, String password) throws IOException, InterruptedException {
+        HttpResponse<String> response = login(username, password);
+        assertEquals(200, response.statusCode(), response.body());
+        Matcher matcher = TOKEN.matcher(response.body());
+        matcher.find();
+        return matcher.group(1);
+    }
+
+    @Test
+    void managerLogsInWithTheConfiguredPasswordOnly() throws Exception {
+        assertEquals(401, login("admin", "admin").statusCode());
+        String manager = token("admin", MANAGER_PASSWORD);
+        assertEquals(200, send("POST", "/manager/customers", manager,
+                "{\"username\":\"alice\",\"password\":\"pw\",\"balance\":\"10\"}").statusCode());
+    }
+
+    @Test
+    void managerCannotCreateANegativeBalance() throws Exception {
+        String manager = token("admin", MANAGER_PASSWORD);
+        HttpResponse<String> response = send("POST", "/manager/customers", manager,
+                "{\"username\":\"alice\",\"password\":\"pw\",\"balance\":\"-10\"}");
+        assertEquals(400, response.statusCode());
+        assertEquals("{\"error\":\"INVALID_AMOUNT\"}", response.body());
+        assertFalse(engine.exists("alice"));
+    }
+
+    @Test
+    void deletingAnAccountRevokesItsTokens() throws Exception {
+        engine.createAccount("alice", "pw", Money.of(10));
+        String customer = token("alice", "pw");
+        assertEquals(200, send("GET", "/balance", customer, null).statusCode());
+        String manager = token("admin", MANAGER_PASSWORD);
+        assertEquals(200, send("DELETE", "/manager/customers/alice", manager, null).statusCode());
+        engine.createAccount("alice", "other", Money.of(10));
+        assertEquals(401, send("GET", "/balance", customer, null).statusCode());
+    }
+
+    @Test
+    void logoutRevokesTheToken() throws Exception {
+        engine.createAccount("alice", "pw", Money.of(10));
+        String customer = token("alice", "pw");
+        assertEquals(200, send("POST", "/logout", customer, null).statusCode());
+        assertEquals(401, send("GET", "/balance", customer, null).statusCode());
+    }
+
+    @Test
+    void tokensExpire() throws Exception {
+        server.close();
+        startServer(2, TimeUnit.SECONDS);
+        engine.createAccount("alice", "pw", Money.of(10));
+        String customer = token("alice", "pw");
+        assertEquals(200, send("GET", "/balance", customer, null).statusCode());
+        Thread.sleep(2500);
+        assertEquals(401, send("GET", "/balance", customer, null).statusCode());
+    }
+}
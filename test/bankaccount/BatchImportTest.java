@@ -0,0 +1,87 @@
+package bankaccount;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BatchImportTest {
+
+    @TempDir
+    Path directory;
+
+    private AccountEngine engine;
+
+    @BeforeEach
+    void openEngine() throws IOException {
+        engine = new AccountEngine(new MappedAccountStore(directory), new TransactionJournal(directory));
+    }
+
+    @AfterEach
+    void closeEngine() throws IOException {
+        engine.close();
+    }
+
+    @Test
+    void purchasesAreNotRateLimited() throws Exception {
+        int burst = 10;
+        engine.setPurchaseRateLimiter(new RateLimiter(5, burst));
+        assertEquals(OperationResult.SUCCESS, engine.createAccount("alice", "secret", Money.of(100000)));
+        int purchases = burst * 3;
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < purchases; i++) {
+            lines.add("alice,purchase,60");
+        }
+        Path input = Files.write(directory.resolve("transactions.csv"), lines);
+        Path rejects = directory.resolve("rejects.csv");
+
+        OperationReport report = BatchImport.run(engine, input, rejects, 2);
+
+        assertEquals(purchases, report.count(OperationResult.SUCCESS));
+        assertEquals(0, report.rejected());
+        assertEquals(List.of(), Files.readAllLines(rejects));
+        long fee = engine.tierState("alice").getPurchaseFee();
+        assertEquals(Money.of(100000) - purchases * (Money.of(60) + fee), engine.balance("alice"));
+    }
+
+    @Test
+    void aWorkerFailureStopsTheImport() throws Exception {
+        RuntimeException bug = new IllegalStateException("bug");
+        AccountEngine failing = new AccountEngine(new MappedAccountStore(directory.resolve("failing")),
+                new TransactionJournal(directory.resolve("failing"))) {
+            @Override
+            public OperationResult deposit(String username, long amount) {
+                throw bug;
+            }
+        };
+        try {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 100_000; i++) {
+                lines.add("alice,deposit,1");
+            }
+            Path input = Files.write(directory.resolve("transactions.csv"), lines);
+            Path rejects = directory.resolve("rejects.csv");
+
+            OperationReport report = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                    () -> BatchImport.run(failing, input, rejects, 1));
+
+            assertSame(bug, report.getFailure().getCause());
+            assertTrue(report.getFailedAtLine() > 0 && report.getFailedAtLine() <= lines.size());
+            assertTrue(report.toString().contains("IllegalStateException: Worker batch-import-0 stopped"), report.toString());
+            assertEquals(0, report.total());
+        } finally {
+            failing.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package bankaccount;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedAccountStoreTest {
+
+    // A new store has 1024 records and 4096 index slots, and compacts the index once more
+    // than a quarter of the slots are tombstones.
+    private static final int COMPACTION_THRESHOLD = 1024;
+    private static final int BATCH = 400;
+
+    @TempDir
+    Path directory;
+
+    private int rounds;
+
+    // Effects: Creates a batch of new accounts and deletes them again, leaving tombstones.
+    private void churn(MappedAccountStore store) throws IOException {
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            String username = "user" + rounds + "-" + i;
+            usernames.add(username);
+            store.createHashed(new Account(username, "customer", Money.of(10)),
+                    new Credentials.Hashed(1, new byte[Credentials.SALT_LENGTH], new byte[Credentials.HASH_LENGTH]));
+        }
+        rounds++;
+        int before = store.tombstones();
+        store.deleteAll(usernames);
+        assertEquals(before + BATCH > COMPACTION_THRESHOLD ? 0 : before + BATCH, store.tombstones());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void tombstonesAreCompactedAfterACleanReopen() throws IOException {
+        MappedAccountStore store = new MappedAccountStore(directory);
+        while (store.tombstones() < COMPACTION_THRESHOLD - BATCH) {
+            churn(store);
+        }
+        int tombstones = store.tombstones();
+        store.close();
+
+        store = new MappedAccountStore(directory);
+        try {
+            assertEquals(tombstones, store.tombstones());
+            boolean compacted = false;
+            for (int i = 0; i < 10 && !compacted; i++) {
+                churn(store);
+                compacted = store.tombstones() == 0;
+            }
+            assertTrue(compacted);
+        } finally {
+            store.close();
+        }
+    }
+}